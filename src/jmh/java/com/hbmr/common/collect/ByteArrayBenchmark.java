@@ -0,0 +1,125 @@
+package com.hbmr.common.collect;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ByteArray operations that sit on the framework's paths: comparison, search, concatenation, reading.
+ *
+ * @author Vlad Patryshev
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteArrayBenchmark {
+
+  @Param({"16", "1024", "65536"})
+  public int size;
+
+  private ByteArray left;
+  private ByteArray right;
+  private ByteArray pattern;
+  private BytePattern compiled;
+  private MultiPattern tokens;
+  private byte last;
+  private byte[] serialized;
+  private final BufferAllocator slabs = new SlabAllocator();
+
+  @Setup
+  public void setup() throws IOException {
+    Random random = new Random(size);
+    byte[] bytes = new byte[size];
+    random.nextBytes(bytes);
+    left = new ByteArray(bytes.clone());
+    bytes[size - 1]++; // equal up to the very last byte, the worst case for compareTo
+    right = new ByteArray(bytes);
+    pattern = left.slice(size - Math.min(8, size), size);
+    compiled = BytePattern.compile(pattern);
+    tokens = MultiPattern.compile(pattern, left.slice(0, Math.min(4, size)).concat(right.slice(size - 1, size)));
+    last = left.byteAt(size - 1);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    left.writeTo(Channels.newChannel(out));
+    serialized = out.toByteArray();
+  }
+
+  @Benchmark
+  public int compareTo() {
+    return left.compareTo(right);
+  }
+
+  @Benchmark
+  public int compareUnsigned() {
+    return left.compareUnsigned(right);
+  }
+
+  @Benchmark
+  public boolean equalsTo() {
+    return left.equals(right);
+  }
+
+  @Benchmark
+  public int indexOf() {
+    return left.indexOf(pattern);
+  }
+
+  @Benchmark
+  public int indexOfCompiled() {
+    return compiled.indexIn(left);
+  }
+
+  @Benchmark
+  public int indexOfAny() {
+    return tokens.indexIn(left, 0);
+  }
+
+  @Benchmark
+  public int indexOfByte() {
+    return left.indexOf(last, 0);
+  }
+
+  @Benchmark
+  public ByteArray concat() {
+    return left.concat(right);
+  }
+
+  /**
+   * A composite key built the way map functions do it, by repeated concatenation
+   */
+  @Benchmark
+  public int concatKey() {
+    ByteArray key = left.slice(0, size / 8);
+    for (int i = 1; i < 8; i++) {
+      key = key.concat(right.slice(i * size / 8, (i + 1) * size / 8));
+    }
+    return key.hashCode();
+  }
+
+  @Benchmark
+  public ByteArray readFrom() throws IOException {
+    return ByteArray.readFrom(new ByteArray(serialized).readFrom());
+  }
+
+  @Benchmark
+  public ByteArray readSlab() throws IOException {
+    return new ByteArray.Reader(new ByteArray(serialized).readFrom(), slabs).read();
+  }
+}
@@ -0,0 +1,65 @@
+package com.hbmr.common.collect;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Paging and prefix listing, as used for browsing big key sets.
+ *
+ * @author Vlad Patryshev
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollectionsBenchmark {
+
+  @Param({"1000", "100000"})
+  public int size;
+
+  private List<String> data;
+  private MemReMap<String, ByteArray> map;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(size);
+    data = new ArrayList<String>(size);
+    map = new MemReMap<String, ByteArray>();
+    for (int i = 0; i < size; i++) {
+      String key = "k" + (char) ('a' + random.nextInt(26)) + "/" + random.nextInt(size);
+      data.add(key);
+      map.put(key, new ByteArray(i));
+    }
+  }
+
+  /**
+   * findPage reshuffles its argument, so every call gets a fresh copy; the copy is part of the cost
+   */
+  @Benchmark
+  public Collection<String> findPage() {
+    return Collections3.findPage(new ArrayList<String>(data), size / 2, 20);
+  }
+
+  @Benchmark
+  public SortedSet<String> listForPrefix() {
+    return map.listForPrefix("kq/");
+  }
+}
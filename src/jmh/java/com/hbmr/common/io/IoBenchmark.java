@@ -0,0 +1,84 @@
+package com.hbmr.common.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hbmr.common.collect.ByteArray;
+
+/**
+ * Folder reads and writes in a temporary directory, and Reporter logging.
+ *
+ * @author Vlad Patryshev
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IoBenchmark {
+
+  @Param({"100", "65536"})
+  public int size;
+
+  private File root;
+  private Folder folder;
+  private ByteArray value;
+  private Reporter reporter;
+  private int counter;
+
+  @Setup
+  public void setup() throws IOException {
+    root = File.createTempFile("hbmr", "bench");
+    root.delete();
+    folder = new Folder(root);
+    byte[] bytes = new byte[size];
+    new Random(size).nextBytes(bytes);
+    value = new ByteArray(bytes);
+    folder.put("pets/cats/matroskin", value);
+    reporter = new Reporter();
+  }
+
+  @TearDown
+  public void tearDown() {
+    delete(root);
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) delete(child);
+    }
+    file.delete();
+  }
+
+  @Benchmark
+  public ByteArray get() {
+    return folder.get("pets/cats/matroskin");
+  }
+
+  @Benchmark
+  public ByteArray put() {
+    return folder.put("pets/dogs/sharik", value);
+  }
+
+  @Benchmark
+  public Reporter info() {
+    return reporter.info("mapped %d rows of %s", counter++, "pets");
+  }
+}
@@ -0,0 +1,101 @@
+package com.hbmr.hbase.mr;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.util.Progress;
+
+/**
+ * Hadoop contexts for running mappers and reducers outside of hadoop: output is counted and dropped,
+ * counters and status go nowhere.
+ *
+ * @author Vlad Patryshev
+ */
+class FakeContexts {
+
+  /**
+   * Counts what is written, keeps nothing
+   */
+  static class DiscardingWriter<K, V> extends RecordWriter<K, V> {
+    long written;
+
+    @Override
+    public void write(K key, V value) {
+      written++;
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) {
+    }
+  }
+
+  static class NoReporter extends StatusReporter {
+    private final Counter counter = new Counter() {};
+
+    @Override
+    public Counter getCounter(Enum<?> name) {
+      return counter;
+    }
+
+    @Override
+    public Counter getCounter(String group, String name) {
+      return counter;
+    }
+
+    @Override
+    public void progress() {
+    }
+
+    @Override
+    public void setStatus(String status) {
+    }
+  }
+
+  private static final RawKeyValueIterator NO_INPUT = new RawKeyValueIterator() {
+    public DataInputBuffer getKey() {
+      return null;
+    }
+
+    public DataInputBuffer getValue() {
+      return null;
+    }
+
+    public boolean next() {
+      return false;
+    }
+
+    public void close() {
+    }
+
+    public Progress getProgress() {
+      return new Progress();
+    }
+  };
+
+  static Mapper<ImmutableBytesWritable, Result, Writable, Writable>.Context mapContext(
+      Mapper<ImmutableBytesWritable, Result, Writable, Writable> mapper,
+      Configuration config, RecordWriter<Writable, Writable> output) throws IOException, InterruptedException {
+    return mapper.new Context(config, new TaskAttemptID(), null, output, null, new NoReporter(), null);
+  }
+
+  static <V> Reducer<ImmutableBytesWritable, V, Writable, Writable>.Context reduceContext(
+      Reducer<ImmutableBytesWritable, V, Writable, Writable> reducer, Class<V> valueClass,
+      Configuration config, RecordWriter<Writable, Writable> output) throws IOException, InterruptedException {
+    return reducer.new Context(config, new TaskAttemptID(), NO_INPUT,
+        new Counter() {}, new Counter() {}, output, null, new NoReporter(),
+        (RawComparator<ImmutableBytesWritable>) null, ImmutableBytesWritable.class, valueClass);
+  }
+}
@@ -0,0 +1,129 @@
+package com.hbmr.hbase.mr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hbmr.hbase.mr.samples.RowCounter;
+
+/**
+ * Framework hot paths: the delegating mapper and reducer, driven through fake hadoop contexts.
+ *
+ * @author Vlad Patryshev
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameworkBenchmark {
+  private static final byte[] FAMILY = Bytes.toBytes("family");
+
+  /**
+   * A string action, to measure the string bridge against the byte-native RowCounter
+   */
+  public static class KindOf extends MrAction {
+    @Override
+    public Map<String, String> map(String rowkey, Result inputData, Configuration config) {
+      return Collections.singletonMap(Bytes.toString(inputData.getValue(FAMILY, Bytes.toBytes("kind"))), rowkey);
+    }
+
+    @Override
+    public String reduce(Iterable<String> valuesToReduce, Configuration config) {
+      int n = 0;
+      for (String value : valuesToReduce) n++;
+      return Integer.toString(n);
+    }
+  }
+
+  @Param({"rowcounter", "strings"})
+  public String action;
+
+  @Param({"100"})
+  public int valuesPerKey;
+
+  /**
+   * 0 is no timing at all, to see what the sampled timers cost
+   */
+  @Param({"0", "64"})
+  public int sampleRate;
+
+  private Configuration config;
+  private Framework.DelegatingMapper mapper;
+  private Mapper<ImmutableBytesWritable, Result, Writable, Writable>.Context mapContext;
+  private Framework.DelegatingReducer reducer;
+  private Reducer<ImmutableBytesWritable, Result, Writable, Writable>.Context reduceContext;
+  private ImmutableBytesWritable row;
+  private Result result;
+  private ImmutableBytesWritable key;
+  private List<ImmutableBytesWritable> values;
+
+  @Setup
+  public void setup() throws Exception {
+    config = new Configuration(false);
+    config.set("io.serializations", "org.apache.hadoop.io.serializer.WritableSerialization");
+    config.set(Framework.ACTION_CLASS_KEY, "rowcounter".equals(action) ? RowCounter.class.getName() : KindOf.class.getName());
+    config.set(Framework.COUNTER_KEY, "rows");
+    config.set(Framework.OUTPUT_COLUMN, "stats:count");
+    config.setInt(Sampler.SAMPLE_RATE, sampleRate);
+
+    mapper = new Framework.DelegatingMapper();
+    mapContext = FakeContexts.mapContext(mapper, config, new FakeContexts.DiscardingWriter<Writable, Writable>());
+    mapper.setup(mapContext);
+    reducer = new Framework.DelegatingReducer();
+    reduceContext = FakeContexts.reduceContext(reducer, Result.class, config, new FakeContexts.DiscardingWriter<Writable, Writable>());
+    reducer.setup(reduceContext);
+
+    byte[] rowKey = Bytes.toBytes("matroskin");
+    row = new ImmutableBytesWritable(rowKey);
+    result = new Result(new KeyValue[] {
+        new KeyValue(rowKey, FAMILY, Bytes.toBytes("kind"), Bytes.toBytes("cat")),
+        new KeyValue(rowKey, FAMILY, Bytes.toBytes("name"), Bytes.toBytes("Matroskin"))});
+
+    key = new ImmutableBytesWritable(Bytes.toBytes("cat"));
+    values = new ArrayList<ImmutableBytesWritable>(valuesPerKey);
+    for (int i = 0; i < valuesPerKey; i++) {
+      byte[] value = "rowcounter".equals(action) ? Bytes.toBytes(1L) : Bytes.toBytes("pet" + i);
+      values.add(new ImmutableBytesWritable(value));
+    }
+  }
+
+  @Benchmark
+  public Mapper<ImmutableBytesWritable, Result, Writable, Writable>.Context map() throws Exception {
+    mapper.map(row, result, mapContext);
+    return mapContext;
+  }
+
+  /**
+   * Map output values arrive at the reducer as writables, not as Results; the reducer takes both
+   */
+  @Benchmark
+  @SuppressWarnings("unchecked")
+  public Reducer<ImmutableBytesWritable, Result, Writable, Writable>.Context reduce() throws Exception {
+    reducer.reduce(key, (Iterable) values, reduceContext);
+    return reduceContext;
+  }
+}
@@ -0,0 +1,81 @@
+package com.hbmr.hbase.mr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hbmr.common.collect.ByteArray;
+import com.hbmr.hbase.mr.samples.RowCounter;
+
+/**
+ * RowCounter on its own, without hadoop around it.
+ *
+ * @author Vlad Patryshev
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowCounterBenchmark {
+
+  @Param({"2", "50"})
+  public int cells;
+
+  @Param({"100"})
+  public int valuesPerKey;
+
+  private Configuration config;
+  private RowCounter rowCounter;
+  private ByteArray row;
+  private Result result;
+  private List<ByteArray> counts;
+
+  @Setup
+  public void setup() {
+    config = new Configuration(false);
+    config.set(Framework.COUNTER_KEY, "rows");
+    rowCounter = new RowCounter();
+
+    byte[] rowKey = Bytes.toBytes("matroskin");
+    row = new ByteArray(rowKey);
+    KeyValue[] kvs = new KeyValue[cells];
+    for (int i = 0; i < cells; i++) {
+      kvs[i] = new KeyValue(rowKey, Bytes.toBytes("family"), Bytes.toBytes("q" + i), Bytes.toBytes("value" + i));
+    }
+    result = new Result(kvs);
+
+    counts = new ArrayList<ByteArray>(valuesPerKey);
+    for (int i = 0; i < valuesPerKey; i++) {
+      counts.add(new ByteArray(Bytes.toBytes(1L)));
+    }
+  }
+
+  @Benchmark
+  public Map<ByteArray, ByteArray> map() {
+    return rowCounter.mapBytes(row, result, config);
+  }
+
+  @Benchmark
+  public ByteArray reduce() {
+    return rowCounter.reduceBytes(counts, config);
+  }
+}
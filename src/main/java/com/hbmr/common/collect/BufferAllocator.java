@@ -0,0 +1,26 @@
+package com.hbmr.common.collect;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Where ByteArrays read from channels get their memory; see ByteArray.Reader and SlabAllocator
+ *
+ * @author Vlad Patryshev
+ */
+public interface BufferAllocator {
+  /**
+   * @param size number of bytes needed
+   * @return a buffer with position 0 and limit size
+   */
+  ByteBuffer allocate(int size);
+
+  /**
+   * A new heap buffer for every request; this is what ByteArray.readFrom() always did
+   */
+  BufferAllocator HEAP = new BufferAllocator() {
+    @Override
+    public ByteBuffer allocate(int size) {
+      return ByteBuffer.allocate(size);
+    }
+  };
+}
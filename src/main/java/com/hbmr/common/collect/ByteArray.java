@@ -1,16 +1,19 @@
 package com.hbmr.common.collect;
 
-import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.NoSuchElementException;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
@@ -20,6 +23,9 @@ import com.google.common.collect.Lists;
  * A rich object that handles all kinds of operations with byte array similar to String (implementing CharSequence);
  * it is also a List of Bytes, so one can navigate it.
  * <p/>
+ * List methods box the bytes; byteAt(), getInt(), getLong(), forEachByte() and cursor() do not,
+ * and the algorithms here are built on them.
+ * <p/>
  * HBase, unfortunately, passes around a lot of byte arrays, offsets, lengths... does not make sense, we can replace
  * all of them with ByteArrays.
  * <p/>
@@ -40,7 +46,7 @@ public class ByteArray implements List<Byte>, Comparable<ByteArray>, CharSequenc
    * cached hashCode
    */
   private long hashCode;
-  private boolean haveHash;
+  private volatile boolean haveHash; // written after hashCode, so whoever sees it set sees the hash too
 
   private static ByteBuffer slice(ByteBuffer buf, int offset, int length) {
     if (buf == null) {
@@ -259,9 +265,149 @@ public class ByteArray implements List<Byte>, Comparable<ByteArray>, CharSequenc
      */
   @Override
   public Byte get(int index) {
+    return byteAt(index);
+  }
+
+  /**
+   * Same as get(), without boxing
+   *
+   * @param index position
+   * @return the byte at the position
+   */
+  public byte byteAt(int index) {
     return storage.get(index);
   }
 
+  /**
+   * @param offset position of the first byte
+   * @return big-endian int that starts at the offset
+   */
+  public int getInt(int offset) {
+    return storage.getInt(offset);
+  }
+
+  /**
+   * @param offset position of the first byte
+   * @return big-endian long that starts at the offset
+   */
+  public long getLong(int offset) {
+    return storage.getLong(offset);
+  }
+
+  /**
+   * Feeds all bytes, in order, to the processor, until it says stop
+   *
+   * @param processor gets the bytes
+   * @return the index where the processor stopped, or -1 if it went through all the bytes
+   */
+  public int forEachByte(ByteProcessor processor) {
+    return forEachByte(0, size(), processor);
+  }
+
+  /**
+   * Feeds the bytes in the range, in order, to the processor, until it says stop
+   *
+   * @param fromIndex first position
+   * @param toIndex   position after the last one
+   * @param processor gets the bytes
+   * @return the index where the processor stopped, or -1 if it went through the whole range
+   */
+  public int forEachByte(int fromIndex, int toIndex, ByteProcessor processor) {
+    checkIndex(fromIndex, "fromIndex");
+    checkIndex(toIndex, "toIndex");
+    if (hasArray()) {
+      byte[] array = storage.array();
+      int base = storage.arrayOffset();
+      for (int i = fromIndex; i < toIndex; i++) {
+        if (!processor.process(array[base + i])) {
+          return i;
+        }
+      }
+    } else {
+      for (int i = fromIndex; i < toIndex; i++) {
+        if (!processor.process(storage.get(i))) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return a cursor at the start of this array
+   */
+  public Cursor cursor() {
+    return cursor(0);
+  }
+
+  /**
+   * @param index where the cursor starts
+   * @return a cursor at the given position
+   */
+  public Cursor cursor(int index) {
+    checkIndex(index, "index");
+    return new Cursor(index);
+  }
+
+  /**
+   * Goes through the bytes of the array, without boxing them; can also read ints and longs
+   */
+  public class Cursor {
+    private int position;
+
+    private Cursor(int position) {
+      this.position = position;
+    }
+
+    public int position() {
+      return position;
+    }
+
+    public boolean hasNext() {
+      return position < size();
+    }
+
+    public boolean hasPrevious() {
+      return position > 0;
+    }
+
+    public byte nextByte() {
+      if (position >= size()) {
+        throw new NoSuchElementException();
+      }
+      return byteAt(position++);
+    }
+
+    public byte previousByte() {
+      if (position <= 0) {
+        throw new NoSuchElementException();
+      }
+      return byteAt(--position);
+    }
+
+    public int nextInt() {
+      int value = getInt(position);
+      position += Integer.SIZE / 8;
+      return value;
+    }
+
+    public long nextLong() {
+      long value = getLong(position);
+      position += Long.SIZE / 8;
+      return value;
+    }
+
+    /**
+     * @param n number of bytes to skip; negative goes back
+     * @return this cursor
+     */
+    public Cursor skip(int n) {
+      checkIndex(position + n, "position");
+      position += n;
+      return this;
+    }
+  }
+
   /**
      * Operation not supported
      * {@see java.util.List}
@@ -326,14 +472,38 @@ public class ByteArray implements List<Byte>, Comparable<ByteArray>, CharSequenc
      * @return the index, or -1 if none found
      */
   public int indexOf(byte b, int fromIndex) {
-    for (int i = fromIndex; i < size(); i++) {
-      if (storage.get(i) == b) {
+    int i = Math.max(0, fromIndex);
+    int n = size();
+    long pattern = (b & 0xffL) * LOW_BITS;
+    for (; i + Long.SIZE / 8 <= n; i += Long.SIZE / 8) {
+      long found = zeroBytes(getLong(i) ^ pattern);
+      if (found != 0) {
+        return i + (Long.numberOfLeadingZeros(found) >>> 3);
+      }
+    }
+    for (; i < n; i++) {
+      if (byteAt(i) == b) {
         return i;
       }
     }
     return -1;
   }
 
+  private static final long LOW_BITS = 0x0101010101010101L;
+  private static final long LOW_SEVEN_BITS = 0x7f7f7f7f7f7f7f7fL;
+
+  /**
+   * SWAR ("SIMD within a register"): finds zero bytes in a word, all 8 at once, without branches.
+   * Adding 0x7f to the low 7 bits of a byte sets its high bit unless they are all zero; it cannot carry
+   * into the next byte, so, unlike the shorter (x - 0x01..) trick, there are no false positives.
+   *
+   * @param word 8 bytes
+   * @return a word with the high bit set in every byte that was zero, and nothing else
+   */
+  private static long zeroBytes(long word) {
+    return ~(((word & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | word | LOW_SEVEN_BITS);
+  }
+
   /**
      * Returns the index of the last byte in this array that is equal to b
      *
@@ -341,8 +511,16 @@ public class ByteArray implements List<Byte>, Comparable<ByteArray>, CharSequenc
      * @return the index, or -1 if none found
      */
   public int lastIndexOf(byte b) {
-    for (int i = size() - 1; i >= 0; i--) {
-      if (storage.get(i) == b) {
+    int i = size();
+    long pattern = (b & 0xffL) * LOW_BITS;
+    for (; i >= Long.SIZE / 8; i -= Long.SIZE / 8) {
+      long found = zeroBytes(getLong(i - Long.SIZE / 8) ^ pattern);
+      if (found != 0) {
+        return i - 1 - (Long.numberOfTrailingZeros(found) >>> 3);
+      }
+    }
+    for (i--; i >= 0; i--) {
+      if (byteAt(i) == b) {
         return i;
       }
     }
@@ -364,6 +542,7 @@ public class ByteArray implements List<Byte>, Comparable<ByteArray>, CharSequenc
   /**
    * Rabin-Karp string search {@see
    * http://en.wikipedia.org/wiki/Rabin%E2%80%93Karp_string_search_algorithm}
+   * To search for the same subarray many times, compile it, see BytePattern; for many subarrays, see MultiPattern.
    *
    * @param subarray the one we are looking for
    * @return the position at which the subarray starts in current array
@@ -388,6 +567,9 @@ public class ByteArray implements List<Byte>, Comparable<ByteArray>, CharSequenc
     if (n + fromIndex > size()) {
       return -1;
     }
+    if (n == 1) {
+      return indexOf(subarray.byteAt(0), fromIndex);
+    }
     long hash = subarray.longHashCode();
     long rollingHash = longHashCode(fromIndex, n);
     long m = pow(n - 1);
@@ -398,7 +580,7 @@ public class ByteArray implements List<Byte>, Comparable<ByteArray>, CharSequenc
         return -1;
       }
 
-      rollingHash = (rollingHash - get(i) * m) * HASH_PRIME + get(i + n);
+      rollingHash = (rollingHash - byteAt(i) * m) * HASH_PRIME + byteAt(i + n);
       i++;
     }
     return i;
@@ -428,17 +610,24 @@ public class ByteArray implements List<Byte>, Comparable<ByteArray>, CharSequenc
       if (i <= 0) {
         return -1;
       }
-      long cm = get(i - 1) * m;
-      rollingHash = (rollingHash - get(i + n - 1)) * INVERSE_HASH_PRIME + cm;
+      long cm = byteAt(i - 1) * m;
+      rollingHash = (rollingHash - byteAt(i + n - 1)) * INVERSE_HASH_PRIME + cm;
       i--;
     }
     return i;
   }
 
   private boolean subarrayEquals(ByteArray subarray, int offset) {
-    return offset >= 0
-        && offset + subarray.size() <= size()
-        && (subarray.size() == 0 || subarray.equals(slice(offset, offset + subarray.size())));
+    int n = subarray.size();
+    if (offset < 0 || offset + n > size()) {
+      return false;
+    }
+    for (int i = 0; i < n; i++) {
+      if (byteAt(offset + i) != subarray.byteAt(i)) {
+        return false;
+      }
+    }
+    return true;
   }
 
   /**
@@ -484,18 +673,18 @@ public class ByteArray implements List<Byte>, Comparable<ByteArray>, CharSequenc
      */
   @Override
   public ListIterator<Byte> listIterator(final int index) {
-    final ByteBuffer buf = ((ByteBuffer) storage.duplicate().position(index));
+    final Cursor cursor = cursor(index);
 
     return new ListIterator<Byte>() {
 
       @Override
       public boolean hasNext() {
-        return buf.remaining() > 0;
+        return cursor.hasNext();
       }
 
       @Override
       public Byte next() {
-        return buf.get();
+        return cursor.nextByte();
       }
 
       @Override
@@ -505,23 +694,22 @@ public class ByteArray implements List<Byte>, Comparable<ByteArray>, CharSequenc
 
       @Override
       public boolean hasPrevious() {
-        return buf.position() > 0;
+        return cursor.hasPrevious();
       }
 
       @Override
       public Byte previous() {
-        buf.position(previousIndex());
-        return buf.get(buf.position());
+        return cursor.previousByte();
       }
 
       @Override
       public int nextIndex() {
-        return buf.position();
+        return cursor.position();
       }
 
       @Override
       public int previousIndex() {
-        return buf.position() - 1;
+        return cursor.position() - 1;
       }
 
       @Override
@@ -568,12 +756,55 @@ public class ByteArray implements List<Byte>, Comparable<ByteArray>, CharSequenc
   }
 
   /**
-     * Compares this ByteArray with another, byte by byte.
-     */
+   * Orders ByteArrays the way HBase orders row keys (see Bytes.compareTo): bytes are unsigned
+   */
+  public static final Comparator<ByteArray> UNSIGNED = new Comparator<ByteArray>() {
+    @Override
+    public int compare(ByteArray a, ByteArray b) {
+      return a.compareUnsigned(b);
+    }
+  };
+
+  private static final long SIGN_BITS = 0x8080808080808080L;
+
+  /**
+   * Compares this ByteArray with another, byte by byte; bytes are signed.
+   * For HBase's order, use compareUnsigned() or UNSIGNED.
+   */
   @Override
   public int compareTo(ByteArray that) {
-    for (int i = 0; i < Math.min(size(), that.size()); i++) {
-      int c = get(i) - that.get(i);
+    return compare(that, SIGN_BITS);
+  }
+
+  /**
+   * Compares this ByteArray with another, byte by byte, bytes being unsigned, like HBase does
+   *
+   * @param that another ByteArray
+   * @return -1, 0 or 1
+   */
+  public int compareUnsigned(ByteArray that) {
+    return compare(that, 0);
+  }
+
+  /**
+   * Compares 8 bytes at a time, as unsigned big-endian longs, which is the same as comparing them one by one.
+   * Signed bytes compare the same way as unsigned ones with their sign bits flipped, hence the flip.
+   *
+   * @param flip bits to flip in every byte before comparing
+   */
+  private int compare(ByteArray that, long flip) {
+    int n = Math.min(size(), that.size());
+    int i = 0;
+    for (; i + Long.SIZE / 8 <= n; i += Long.SIZE / 8) {
+      long a = getLong(i) ^ flip;
+      long b = that.getLong(i) ^ flip;
+      if (a != b) {
+        return a + Long.MIN_VALUE < b + Long.MIN_VALUE ? -1 : 1; // unsigned comparison
+      }
+    }
+    int flipByte = (int) flip & 0xff;
+    for (; i < n; i++) {
+      int c = ((byteAt(i) ^ flipByte) & 0xff) - ((that.byteAt(i) ^ flipByte) & 0xff);
       if (c != 0) {
         return c < 0 ? -1 : 1;
       }
@@ -598,7 +829,7 @@ public class ByteArray implements List<Byte>, Comparable<ByteArray>, CharSequenc
      */
   @Override
   public char charAt(int index) {
-    return (char) get(index).byteValue();
+    return (char) byteAt(index);
   }
 
   @Override
@@ -619,16 +850,32 @@ public class ByteArray implements List<Byte>, Comparable<ByteArray>, CharSequenc
 
   long longHashCode(int from, int n) {
     long code = 0;
-    for (int i = from; i < from + n; i++) {
-      code = code * HASH_PRIME + get(i);
+    if (hasArray()) {
+      byte[] array = storage.array();
+      int base = storage.arrayOffset();
+      for (int i = base + from; i < base + from + n; i++) {
+        code = code * HASH_PRIME + array[i];
+      }
+    } else {
+      for (int i = from; i < from + n; i++) {
+        code = code * HASH_PRIME + storage.get(i);
+      }
     }
     return code;
   }
 
   @Override
   public boolean equals(Object obj) {
-    return obj instanceof ByteArray
-        && this.compareTo(((ByteArray) obj)) == 0;
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof ByteArray)) {
+      return false;
+    }
+    ByteArray that = (ByteArray) obj;
+    return size() == that.size()
+        && (!haveHash || !that.haveHash || hashCode == that.hashCode)
+        && compare(that, 0) == 0;
   }
 
   @Override
@@ -644,6 +891,15 @@ public class ByteArray implements List<Byte>, Comparable<ByteArray>, CharSequenc
     return slice(start, end);
   }
 
+  /**
+   * {@see ByteBuffer}
+   *
+   * @return true if there is an accessible underlying array
+   */
+  public boolean hasArray() {
+    return storage != null && storage.hasArray();
+  }
+
   /**
    * {@see ByteBuffer}
    *
@@ -682,7 +938,7 @@ public class ByteArray implements List<Byte>, Comparable<ByteArray>, CharSequenc
   }
 
   /**
-   * Concatenates a bunch (vararg) of byte arrays; memory is allocated on heap
+   * Concatenates a bunch (vararg) of byte arrays; see concat(Iterable)
    *
    * @param arrays
    * @return concatenated array
@@ -693,29 +949,38 @@ public class ByteArray implements List<Byte>, Comparable<ByteArray>, CharSequenc
 
 
   /**
-   * Concatenates a bunch (iterable) of byte arrays; memory is allocated on heap
-   * TODO(vlad): use a class from myjavatools.com to have virtual concatenation
+   * Concatenates a bunch (iterable) of byte arrays. Nothing is copied: the result refers to the parts
+   * (see CompositeByteArray), and the bytes are only copied into one array if array() is called.
+   * If the first array is a composite, the rest are appended to its parts, usually in place;
+   * so building a key by repeated concatenation costs the number of parts, not the number of bytes.
    *
    * @param arrays
    * @return concatenated array
    */
   public static ByteArray concat(Iterable<ByteArray> arrays) {
-    int length = 0;
+    CompositeByteArray head = null;
+    List<ByteArray> parts = Lists.newArrayList();
     for (ByteArray ba : arrays) {
-      if (ba != null && !ba.isNull()) {
-        length += ba.length();
+      if (ba != null && !ba.isEmpty()) {
+        if (head == null && parts.isEmpty() && ba instanceof CompositeByteArray) {
+          head = (CompositeByteArray) ba;
+        } else {
+          ba.addPartsTo(parts);
+        }
       }
     }
 
-    ByteBuffer buf = ByteBuffer.allocate(length);
-
-    for (ByteArray ba : arrays) {
-      if (ba != null && !ba.isNull()) {
-        buf.put(ba.storage.duplicate()); // duplicate, or else position is moved ahead
-      }
-    }
+    return head != null ? (parts.isEmpty() ? head : head.append(parts)) :
+           parts.isEmpty() ? new ByteArray(ByteBuffer.allocate(0)) :
+           parts.size() == 1 ? parts.get(0) :
+           CompositeByteArray.of(parts);
+  }
 
-    return new ByteArray(buf);
+  /**
+   * Adds the plain arrays this one consists of to the list
+   */
+  void addPartsTo(List<ByteArray> parts) {
+    parts.add(this);
   }
 
   /**
@@ -725,12 +990,55 @@ public class ByteArray implements List<Byte>, Comparable<ByteArray>, CharSequenc
    * @throws IOException
    */
   public void writeTo(WritableByteChannel channel) throws IOException {
-    writeInt(channel, length());
-    dumpTo(channel);
+    if (channel instanceof GatheringByteChannel) {
+      ByteBuffer[] buffers = {(ByteBuffer) bufferOfInt().putInt(length()).flip(), body()};
+      while (buffers[0].hasRemaining() || buffers[1].hasRemaining()) {
+        ((GatheringByteChannel) channel).write(buffers);
+      }
+    } else {
+      writeInt(channel, length());
+      dumpTo(channel);
+    }
+  }
+
+  ByteBuffer body() {
+    return isNull() ? ByteBuffer.allocate(0) : storage.duplicate(); // duplicate, or else position is moved ahead
   }
 
+  /**
+   * @return a channel that reads the bytes of this array; nothing is copied
+   */
   public ReadableByteChannel readFrom() {
-    return Channels.newChannel(new ByteArrayInputStream(getBytes()));
+    final ByteBuffer body = body();
+    return new ReadableByteChannel() {
+      private boolean open = true;
+
+      @Override
+      public int read(ByteBuffer dst) throws IOException {
+        if (!open) {
+          throw new ClosedChannelException();
+        }
+        if (!body.hasRemaining()) {
+          return -1;
+        }
+        int n = Math.min(dst.remaining(), body.remaining());
+        ByteBuffer chunk = body.duplicate();
+        chunk.limit(chunk.position() + n);
+        dst.put(chunk);
+        body.position(body.position() + n);
+        return n;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return open;
+      }
+
+      @Override
+      public void close() {
+        open = false;
+      }
+    };
   }
 
   /**
@@ -740,32 +1048,93 @@ public class ByteArray implements List<Byte>, Comparable<ByteArray>, CharSequenc
    * @throws IOException
    */
   public void dumpTo(WritableByteChannel channel) throws IOException {
-    channel.write(storage.duplicate());
+    writeFully(channel, body());
+  }
+
+  static void writeFully(WritableByteChannel channel, ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      channel.write(buf);
+    }
+  }
+
+  /**
+   * Reads until the buffer is full or the channel ends
+   *
+   * @return true if the buffer is full
+   */
+  private static boolean readFully(ReadableByteChannel channel, ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      if (channel.read(buf) < 0) {
+        return false;
+      }
+    }
+    return true;
   }
 
   public static ByteArray readFrom(ReadableByteChannel channel, int limit) throws IOException {
-    int size = readInt(channel);
+    return readBody(channel, readInt(channel), limit, BufferAllocator.HEAP);
+  }
+
+  public static ByteArray readFrom(ReadableByteChannel channel) throws IOException {
+    return readFrom(channel, Integer.MAX_VALUE);
+  }
+
+  private static ByteArray readBody(ReadableByteChannel channel, int size, int limit, BufferAllocator allocator)
+      throws IOException {
     if (size < 0) {
       throw new IOException("Wrong size (" + size + ")");
     }
     if (size > limit) {
       throw new IOException("Wrong size (" + size + "), max " + limit);
     }
-    ByteBuffer storage = ByteBuffer.allocate(size);
-    channel.read(storage);
+    ByteBuffer storage = allocator.allocate(size);
+    if (!readFully(channel, storage)) {
+      throw new EOFException("Expected " + size + " bytes, got " + storage.position());
+    }
     storage.flip();
     return new ByteArray(storage);
   }
 
-  public static ByteArray readFrom(ReadableByteChannel channel) throws IOException {
-    int size = readInt(channel);
-    if (size < 0) {
-      throw new IOException("Wrong size (" + size + ")");
+  /**
+   * Reads ByteArrays, as written by writeTo(), one after another from a channel. Unlike readFrom(),
+   * it reuses its buffer for the sizes and takes the memory for the bytes from an allocator; with
+   * a SlabAllocator, reading many small records produces next to no garbage. Not thread safe.
+   */
+  public static class Reader {
+    private final ReadableByteChannel channel;
+    private final BufferAllocator allocator;
+    private final int limit;
+    private final ByteBuffer header = bufferOfInt();
+
+    /**
+     * @param channel   where to read from
+     * @param allocator gives memory for the bytes
+     * @param limit     max size of an array; larger ones are an error
+     */
+    public Reader(ReadableByteChannel channel, BufferAllocator allocator, int limit) {
+      this.channel = channel;
+      this.allocator = allocator;
+      this.limit = limit;
+    }
+
+    public Reader(ReadableByteChannel channel, BufferAllocator allocator) {
+      this(channel, allocator, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the next array, or null if the channel ended where an array would start
+     * @throws EOFException if the channel ended in the middle of an array
+     */
+    public ByteArray read() throws IOException {
+      header.clear();
+      if (!readFully(channel, header)) {
+        if (header.position() == 0) {
+          return null;
+        }
+        throw new EOFException("Expected " + header.capacity() + " bytes of size, got " + header.position());
+      }
+      return readBody(channel, header.getInt(0), limit, allocator);
     }
-    ByteBuffer storage = ByteBuffer.allocate(size);
-    channel.read(storage);
-    storage.flip();
-    return new ByteArray(storage);
   }
 
   public void expectFrom(ReadableByteChannel channel) throws IOException {
@@ -780,12 +1149,12 @@ public class ByteArray implements List<Byte>, Comparable<ByteArray>, CharSequenc
   }
 
   public static void writeInt(WritableByteChannel channel, int n) throws IOException {
-    channel.write((ByteBuffer) (bufferOfInt().putInt(n).flip()));
+    writeFully(channel, (ByteBuffer) (bufferOfInt().putInt(n).flip()));
   }
 
   public static int readInt(ReadableByteChannel channel) throws IOException {
     ByteBuffer buf = bufferOfInt();
-    channel.read(buf);
+    readFully(channel, buf);
     buf.flip();
     Preconditions.checkArgument(buf.limit() >= Integer.SIZE / 8, "no space for integer: " + buf.limit());
     return buf.getInt();
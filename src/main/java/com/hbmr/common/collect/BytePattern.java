@@ -0,0 +1,98 @@
+package com.hbmr.common.collect;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A byte sequence compiled for searching, with Boyer-Moore-Horspool: on a mismatch, the search skips ahead
+ * by up to the length of the pattern. Compile once, then search as many arrays as needed;
+ * searching allocates nothing, and a compiled pattern can be shared between threads.
+ *
+ * @author Vlad Patryshev
+ */
+public final class BytePattern {
+  private final ByteArray pattern;
+  private final int[] shift = new int[256];
+
+  private BytePattern(ByteArray pattern) {
+    this.pattern = pattern;
+    int n = pattern.size();
+    for (int i = 0; i < shift.length; i++) {
+      shift[i] = n;
+    }
+    for (int i = 0; i < n - 1; i++) {
+      shift[pattern.byteAt(i) & 0xff] = n - 1 - i;
+    }
+  }
+
+  /**
+   * @param pattern what to look for
+   * @return the compiled pattern
+   */
+  public static BytePattern compile(ByteArray pattern) {
+    Preconditions.checkNotNull(pattern);
+    return new BytePattern(pattern);
+  }
+
+  public ByteArray pattern() {
+    return pattern;
+  }
+
+  public int indexIn(ByteArray text) {
+    return indexIn(text, 0);
+  }
+
+  /**
+   * @param text      where to look
+   * @param fromIndex position starting from which we search
+   * @return the position where the first occurrence of the pattern starts, or -1 if there is none
+   */
+  public int indexIn(ByteArray text, int fromIndex) {
+    int n = pattern.size();
+    int m = text.size();
+    if (n == 0) {
+      return fromIndex <= m ? fromIndex : -1;
+    }
+    if (n == 1) {
+      return text.indexOf(pattern.byteAt(0), fromIndex);
+    }
+    byte last = pattern.byteAt(n - 1);
+    for (int i = Math.max(0, fromIndex); i <= m - n; ) {
+      byte b = text.byteAt(i + n - 1);
+      if (b == last && matchesAt(text, i, n - 1)) {
+        return i;
+      }
+      i += shift[b & 0xff];
+    }
+    return -1;
+  }
+
+  /**
+   * @return true if the first n bytes of the pattern are in the text at the given position
+   */
+  private boolean matchesAt(ByteArray text, int position, int n) {
+    for (int j = 0; j < n; j++) {
+      if (text.byteAt(position + j) != pattern.byteAt(j)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param text where to look
+   * @return number of occurrences, not overlapping
+   */
+  public int countIn(ByteArray text) {
+    int count = 0;
+    int step = Math.max(1, pattern.size());
+    for (int i = indexIn(text, 0); i >= 0 && i < text.size(); i = indexIn(text, i + step)) {
+      count++;
+    }
+    return count;
+  }
+
+  @Override
+  public String toString() {
+    return "BytePattern(" + pattern + ")";
+  }
+}
@@ -0,0 +1,14 @@
+package com.hbmr.common.collect;
+
+/**
+ * Gets the bytes of a ByteArray one by one, as primitives; see ByteArray.forEachByte()
+ *
+ * @author Vlad Patryshev
+ */
+public interface ByteProcessor {
+  /**
+   * @param value next byte
+   * @return true to go on, false to stop here
+   */
+  boolean process(byte value);
+}
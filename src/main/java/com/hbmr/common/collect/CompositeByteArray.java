@@ -0,0 +1,328 @@
+package com.hbmr.common.collect;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A ByteArray made of other ByteArrays, without copying them (a rope); this is what concat() returns.
+ * The parts are plain arrays: concatenating composites takes their parts, so there is never more than one level.
+ * Reading a byte costs a binary search over the parts; writing to a channel writes the parts one by one,
+ * with one gathering write if the channel can do it. The bytes are copied into one array only when
+ * array() is called, and only once; until then hasArray() is false.
+ * <p/>
+ * Appending to a composite does not copy its parts either: the part arrays have room to spare, and the new
+ * composite shares them with the old one, using more of them (like an ArrayList that several composites
+ * look at, each up to its own size). Only the longest composite of a family can append in place; appending
+ * to a shorter one copies. So building a key by repeated concat() costs amortized O(1) per part;
+ * prepending to a composite still copies its parts.
+ *
+ * @author Vlad Patryshev
+ */
+final class CompositeByteArray extends ByteArray {
+  /**
+   * The parts are the first count of these; the rest are spare, or belong to longer composites
+   */
+  private final ByteArray[] parts;
+  /**
+   * offsets[i] is where parts[i] starts; offsets[count] is the size
+   */
+  private final int[] offsets;
+  private final int count;
+  /**
+   * Shared by the composites that share the part arrays
+   */
+  private final Used used;
+  private volatile ByteArray flat;
+
+  /**
+   * How many of the shared parts are taken
+   */
+  private static final class Used {
+    int count;
+
+    Used(int count) {
+      this.count = count;
+    }
+  }
+
+  private CompositeByteArray(ByteArray[] parts, int[] offsets, int count, Used used) {
+    super((ByteBuffer) null, 0, 0);
+    this.parts = parts;
+    this.offsets = offsets;
+    this.count = count;
+    this.used = used;
+  }
+
+  /**
+   * @param parts plain arrays, not empty
+   * @return their concatenation
+   */
+  static CompositeByteArray of(List<ByteArray> parts) {
+    ByteArray[] array = new ByteArray[parts.size()];
+    int[] offsets = new int[array.length + 1];
+    put(parts, array, offsets, 0);
+    return new CompositeByteArray(array, offsets, array.length, new Used(array.length));
+  }
+
+  /**
+   * Builds a composite with the new parts after these; in place if this is the longest composite of its family
+   * and there is room, otherwise in new arrays twice as large as needed
+   *
+   * @param more plain arrays, not empty
+   * @return the concatenation
+   */
+  CompositeByteArray append(List<ByteArray> more) {
+    int n = count + more.size();
+    synchronized (used) {
+      if (used.count == count && n <= parts.length) {
+        put(more, parts, offsets, count);
+        used.count = n;
+        return new CompositeByteArray(parts, offsets, n, used);
+      }
+    }
+    ByteArray[] array = new ByteArray[2 * n];
+    int[] at = new int[2 * n + 1];
+    System.arraycopy(parts, 0, array, 0, count);
+    System.arraycopy(offsets, 0, at, 0, count + 1);
+    put(more, array, at, count);
+    return new CompositeByteArray(array, at, n, new Used(n));
+  }
+
+  private static void put(List<ByteArray> more, ByteArray[] parts, int[] offsets, int from) {
+    int i = from;
+    for (ByteArray part : more) {
+      parts[i] = part;
+      offsets[i + 1] = offsets[i] + part.size();
+      i++;
+    }
+  }
+
+  @Override
+  void addPartsTo(List<ByteArray> list) {
+    list.addAll(Arrays.asList(parts).subList(0, count));
+  }
+
+  @Override
+  public int size() {
+    return offsets[count];
+  }
+
+  @Override
+  public boolean isNull() {
+    return false;
+  }
+
+  /**
+   * @param index position in this array, 0 <= index < size()
+   * @return number of the part where the position is
+   */
+  private int partAt(int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("index=" + index + " out of bounds(0, " + size() + ")");
+    }
+    int low = 0;
+    int high = count - 1;
+    while (low < high) {
+      int middle = (low + high + 1) >>> 1;
+      if (offsets[middle] <= index) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return low;
+  }
+
+  @Override
+  public byte byteAt(int index) {
+    ByteArray f = flat;
+    if (f != null) {
+      return f.byteAt(index);
+    }
+    int part = partAt(index);
+    return parts[part].byteAt(index - offsets[part]);
+  }
+
+  @Override
+  public int getInt(int offset) {
+    return (int) getBits(offset, Integer.SIZE / 8);
+  }
+
+  @Override
+  public long getLong(int offset) {
+    return getBits(offset, Long.SIZE / 8);
+  }
+
+  /**
+   * @return big-endian value of n bytes starting at the offset; they may come from more than one part
+   */
+  private long getBits(int offset, int n) {
+    ByteArray f = flat;
+    if (f != null) {
+      return n == Long.SIZE / 8 ? f.getLong(offset) : f.getInt(offset);
+    }
+    int part = partAt(offset);
+    int start = offset - offsets[part];
+    if (start + n <= parts[part].size()) {
+      return n == Long.SIZE / 8 ? parts[part].getLong(start) : parts[part].getInt(start);
+    }
+    partAt(offset + n - 1); // checks the bounds
+    long value = 0;
+    for (int i = offset; i < offset + n; i++) {
+      value = value << 8 | (byteAt(i) & 0xff);
+    }
+    return value;
+  }
+
+  @Override
+  public int forEachByte(int fromIndex, int toIndex, ByteProcessor processor) {
+    checkRange(fromIndex, toIndex);
+    for (int part = fromIndex < toIndex ? partAt(fromIndex) : count; part < count; part++) {
+      int from = Math.max(fromIndex, offsets[part]);
+      int to = Math.min(toIndex, offsets[part + 1]);
+      if (from >= to) {
+        break;
+      }
+      int stopped = parts[part].forEachByte(from - offsets[part], to - offsets[part], processor);
+      if (stopped >= 0) {
+        return stopped + offsets[part];
+      }
+    }
+    return -1;
+  }
+
+  private void checkRange(int fromIndex, int toIndex) {
+    if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+      throw new IndexOutOfBoundsException("range(" + fromIndex + ", " + toIndex + ") out of bounds(0, " + size() + ")");
+    }
+  }
+
+  /**
+   * A slice that lies within one part is a slice of that part; otherwise it is a composite of the slices of parts
+   */
+  @Override
+  public ByteArray slice(int fromIndex, int toIndex) {
+    checkRange(fromIndex, toIndex);
+    if (fromIndex == 0 && toIndex == size()) {
+      return this;
+    }
+    if (fromIndex == toIndex) {
+      return new ByteArray(ByteBuffer.allocate(0));
+    }
+    int first = partAt(fromIndex);
+    int last = partAt(toIndex - 1);
+    if (first == last) {
+      return parts[first].slice(fromIndex - offsets[first], toIndex - offsets[first]);
+    }
+    List<ByteArray> slices = new ArrayList<ByteArray>(last - first + 1);
+    slices.add(parts[first].slice(fromIndex - offsets[first], parts[first].size()));
+    slices.addAll(Arrays.asList(parts).subList(first + 1, last));
+    slices.add(parts[last].slice(0, toIndex - offsets[last]));
+    return of(slices);
+  }
+
+  /**
+   * The hash of a concatenation is the hash of the first part times HASH_PRIME^(length of the second),
+   * plus the hash of the second; so the parts hash themselves
+   */
+  @Override
+  long longHashCode(int from, int n) {
+    long code = 0;
+    for (int part = 0; part < count && n > 0; part++) {
+      int start = Math.max(from, offsets[part]);
+      int end = Math.min(from + n, offsets[part + 1]);
+      if (start < end) {
+        code = code * pow(end - start) + parts[part].longHashCode(start - offsets[part], end - start);
+      }
+    }
+    return code;
+  }
+
+  /**
+   * There is an array only once array() has made it; until then, callers that check go for getBytes() or the parts
+   */
+  @Override
+  public boolean hasArray() {
+    return flat != null;
+  }
+
+  /**
+   * Copies the parts into one array, the first time it is called; it can be called even if there is no array yet
+   *
+   * @return the array with all the bytes
+   */
+  @Override
+  public byte[] array() {
+    ByteArray f = flat;
+    if (f == null) {
+      f = new ByteArray(getBytes());
+      flat = f;
+    }
+    return f.array();
+  }
+
+  @Override
+  public int arrayOffset() {
+    return 0;
+  }
+
+  @Override
+  public byte[] getBytes() {
+    ByteArray f = flat;
+    if (f != null) {
+      return f.getBytes();
+    }
+    ByteBuffer buf = ByteBuffer.allocate(size());
+    for (int i = 0; i < count; i++) {
+      buf.put(parts[i].body());
+    }
+    return buf.array();
+  }
+
+  @Override
+  ByteBuffer body() {
+    return ByteBuffer.wrap(getBytes());
+  }
+
+  private ByteBuffer[] bodies(int from) {
+    ByteBuffer[] buffers = new ByteBuffer[from + count];
+    for (int i = 0; i < count; i++) {
+      buffers[from + i] = parts[i].body();
+    }
+    return buffers;
+  }
+
+  @Override
+  public void writeTo(WritableByteChannel channel) throws IOException {
+    if (channel instanceof GatheringByteChannel) {
+      ByteBuffer[] buffers = bodies(1);
+      buffers[0] = (ByteBuffer) ByteBuffer.allocate(Integer.SIZE / 8).putInt(size()).flip();
+      write((GatheringByteChannel) channel, buffers);
+    } else {
+      writeInt(channel, size());
+      dumpTo(channel);
+    }
+  }
+
+  @Override
+  public void dumpTo(WritableByteChannel channel) throws IOException {
+    if (channel instanceof GatheringByteChannel) {
+      write((GatheringByteChannel) channel, bodies(0));
+    } else {
+      for (int i = 0; i < count; i++) {
+        writeFully(channel, parts[i].body());
+      }
+    }
+  }
+
+  private static void write(GatheringByteChannel channel, ByteBuffer[] buffers) throws IOException {
+    while (buffers[buffers.length - 1].hasRemaining()) {
+      channel.write(buffers);
+    }
+  }
+}
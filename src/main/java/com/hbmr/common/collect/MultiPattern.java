@@ -0,0 +1,171 @@
+package com.hbmr.common.collect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Many byte sequences compiled for searching all at once, with Aho-Corasick: the text is read once,
+ * a byte at a time, whatever the number of patterns. The automaton is a full transition table,
+ * 256 ints per state, and there is a state per distinct prefix of the patterns; good for a few thousand tokens.
+ * Compile once, then search as many arrays as needed; searching allocates nothing, and a compiled matcher
+ * can be shared between threads.
+ *
+ * @author Vlad Patryshev
+ */
+public final class MultiPattern {
+
+  /**
+   * Gets the matches, in the order of their ends; for matches ending at the same place, longer patterns go first
+   */
+  public interface MatchProcessor {
+    /**
+     * @param pattern index of the pattern, in the order they were given to compile()
+     * @param start   where the match starts in the text
+     * @param end     where it ends (not included)
+     * @return true to go on, false to stop
+     */
+    boolean process(int pattern, int start, int end);
+  }
+
+  private static final int[] NONE = new int[0];
+
+  private final ByteArray[] patterns;
+  private final int[] next;
+  private final int[][] matches;
+
+  private MultiPattern(ByteArray[] patterns) {
+    this.patterns = patterns;
+    int maxStates = 1;
+    for (ByteArray pattern : patterns) {
+      maxStates += pattern.size();
+    }
+    int[] trie = new int[maxStates * 256];
+    List<List<Integer>> found = new ArrayList<List<Integer>>();
+    found.add(new ArrayList<Integer>());
+    int states = 1;
+    for (int p = 0; p < patterns.length; p++) {
+      int state = 0;
+      for (int i = 0; i < patterns[p].size(); i++) {
+        int c = patterns[p].byteAt(i) & 0xff;
+        if (trie[state * 256 + c] == 0) {
+          trie[state * 256 + c] = states;
+          found.add(new ArrayList<Integer>());
+          states++;
+        }
+        state = trie[state * 256 + c];
+      }
+      found.get(state).add(p);
+    }
+
+    // breadth first, so that a state's fallback is complete before the state is
+    next = new int[states * 256];
+    matches = new int[states][];
+    int[] fallback = new int[states];
+    int[] queue = new int[states];
+    int head = 0;
+    int tail = 0;
+    for (int c = 0; c < 256; c++) {
+      int child = trie[c];
+      next[c] = child;
+      if (child != 0) {
+        queue[tail++] = child;
+      }
+    }
+    matches[0] = NONE;
+    while (head < tail) {
+      int state = queue[head++];
+      List<Integer> own = found.get(state);
+      int[] inherited = matches[fallback[state]];
+      int[] all = new int[own.size() + inherited.length];
+      for (int i = 0; i < own.size(); i++) {
+        all[i] = own.get(i);
+      }
+      System.arraycopy(inherited, 0, all, own.size(), inherited.length);
+      matches[state] = all.length == 0 ? NONE : all;
+      for (int c = 0; c < 256; c++) {
+        int child = trie[state * 256 + c];
+        if (child == 0) {
+          next[state * 256 + c] = next[fallback[state] * 256 + c];
+        } else {
+          next[state * 256 + c] = child;
+          fallback[child] = next[fallback[state] * 256 + c];
+          queue[tail++] = child;
+        }
+      }
+    }
+  }
+
+  /**
+   * @param patterns what to look for; not empty
+   * @return the compiled matcher
+   */
+  public static MultiPattern compile(Iterable<ByteArray> patterns) {
+    List<ByteArray> list = new ArrayList<ByteArray>();
+    for (ByteArray pattern : patterns) {
+      Preconditions.checkArgument(pattern != null && !pattern.isEmpty(), "Empty pattern");
+      list.add(pattern);
+    }
+    return new MultiPattern(list.toArray(new ByteArray[list.size()]));
+  }
+
+  public static MultiPattern compile(ByteArray... patterns) {
+    return compile(Arrays.asList(patterns));
+  }
+
+  public int size() {
+    return patterns.length;
+  }
+
+  public ByteArray pattern(int index) {
+    return patterns[index];
+  }
+
+  /**
+   * @param text where to look
+   * @return true if any of the patterns is in the text
+   */
+  public boolean containsAny(ByteArray text) {
+    return indexIn(text, 0) >= 0;
+  }
+
+  /**
+   * @param text      where to look
+   * @param fromIndex position starting from which we search
+   * @return where the match that ends first starts, or -1 if none of the patterns is in the text
+   */
+  public int indexIn(ByteArray text, int fromIndex) {
+    int state = 0;
+    for (int i = Math.max(0, fromIndex); i < text.size(); i++) {
+      state = next[state * 256 + (text.byteAt(i) & 0xff)];
+      if (matches[state].length > 0) {
+        return i + 1 - patterns[matches[state][0]].size();
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Reports all the matches, overlapping ones included
+   *
+   * @param text      where to look
+   * @param processor gets the matches
+   * @return number of matches reported
+   */
+  public int forEachMatch(ByteArray text, MatchProcessor processor) {
+    int count = 0;
+    int state = 0;
+    for (int i = 0; i < text.size(); i++) {
+      state = next[state * 256 + (text.byteAt(i) & 0xff)];
+      for (int pattern : matches[state]) {
+        count++;
+        if (!processor.process(pattern, i + 1 - patterns[pattern].size(), i + 1)) {
+          return count;
+        }
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,62 @@
+package com.hbmr.common.collect;
+
+import java.nio.ByteBuffer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Cuts buffers out of big slabs, one slab per thread at a time, so that reading many small records
+ * allocates a slab now and then instead of an array per record. A slab can be in direct memory,
+ * out of the garbage collector's way. Large requests, over an eighth of a slab, get buffers of their own.
+ * <p/>
+ * A slab is freed when the last buffer cut out of it is; so keeping one small record pins a whole slab.
+ * Copy the records that are kept for long.
+ *
+ * @author Vlad Patryshev
+ */
+public final class SlabAllocator implements BufferAllocator {
+  public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+  private final int slabSize;
+  private final boolean direct;
+  private final ThreadLocal<ByteBuffer> slab = new ThreadLocal<ByteBuffer>();
+
+  /**
+   * @param slabSize bytes per slab
+   * @param direct   true to keep the slabs in direct memory
+   */
+  public SlabAllocator(int slabSize, boolean direct) {
+    Preconditions.checkArgument(slabSize > 0, "Slab size must be positive, got " + slabSize);
+    this.slabSize = slabSize;
+    this.direct = direct;
+  }
+
+  public SlabAllocator() {
+    this(DEFAULT_SLAB_SIZE, false);
+  }
+
+  private ByteBuffer newBuffer(int size) {
+    return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+  }
+
+  @Override
+  public ByteBuffer allocate(int size) {
+    if (size > slabSize / 8) {
+      return newBuffer(size);
+    }
+    ByteBuffer current = slab.get();
+    if (current == null || current.remaining() < size) {
+      current = newBuffer(slabSize);
+      slab.set(current);
+    }
+    ByteBuffer buffer = current.slice();
+    buffer.limit(size);
+    current.position(current.position() + size);
+    return buffer;
+  }
+
+  @Override
+  public String toString() {
+    return "SlabAllocator(" + slabSize + (direct ? ", direct)" : ")");
+  }
+}
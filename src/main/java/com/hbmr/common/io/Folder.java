@@ -156,11 +156,22 @@ public class Folder implements ReMap<String, ByteArray> {
     if (!containsKey(key)) {
       return null;
     }
+    RandomAccessFile file = null;
     try {
-      FileChannel c = new RandomAccessFile(fileFor(key), "r").getChannel();
+      file = new RandomAccessFile(fileFor(key), "r");
+      FileChannel c = file.getChannel();
+      // the mapping stays valid after the file is closed
       return new ByteArray(c.map(FileChannel.MapMode.READ_ONLY, 0, c.size()));
     } catch (IOException e) {
       throw new CouldNotRead(e);
+    } finally {
+      if (file != null) {
+        try {
+          file.close();
+        } catch (IOException e) {
+          // could not close a file, nothing to do about it
+        }
+      }
     }
   }
 
@@ -1,33 +1,40 @@
 package com.hbmr.hbase.mr;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-import com.google.common.collect.Lists;
+import com.google.common.base.Preconditions;
+
+import com.hbmr.common.collect.ByteArray;
+import com.hbmr.common.collect.ReMap;
 
 /**
- * A collection of mapreduce jobs. Can be parallel or sequential or you name it (a priority queue? have to think about it)
+ * A collection of mapreduce jobs. Can be parallel or sequential or you name it (a priority queue, see PriorityJob)
+ * The group learns about its jobs completing from their completion futures, see watch().
+ * A group that failed can be resumed, see resume(); with checkpoints, even by another process.
  *
  * @author Vlad Patryshev
  */
 public abstract class BulkJob extends CommonJob {
 
   protected List<MrJob> jobs;
+  private ReMap<String, ByteArray> checkpoints;
+  private String checkpointKey;
+  // jobs found in the checkpoints; remembered, since the records go away once the group succeeds
+  private final Set<MrJob> restored = Collections.newSetFromMap(new ConcurrentHashMap<MrJob, Boolean>());
 
   BulkJob(MrJob... jobs) {
-    this.jobs = Lists.newArrayList(jobs);
-//      Configuration conf = JobClient.this.getConf();
-//      this.completionPollIntervalMillis = conf.getInt(COMPLETION_POLL_INTERVAL_KEY,
-//          DEFAULT_COMPLETION_POLL_INTERVAL);
-//      if (this.completionPollIntervalMillis < 1) {
-//        LOG.warn(COMPLETION_POLL_INTERVAL_KEY + " has been set to an invalid value; "
-//            + "replacing with " + DEFAULT_COMPLETION_POLL_INTERVAL);
-//        this.completionPollIntervalMillis = DEFAULT_COMPLETION_POLL_INTERVAL;
-//      }
+    this.jobs = new CopyOnWriteArrayList<MrJob>(Arrays.asList(jobs));
   }
 
   BulkJob(Collection<MrJob> jobs) {
-    this.jobs = Lists.newArrayList(jobs);
+    this.jobs = new CopyOnWriteArrayList<MrJob>(jobs);
   }
 
   public void add(MrJob job) {
@@ -37,31 +44,165 @@ public abstract class BulkJob extends CommonJob {
 
   protected abstract String kind();
 
+  /**
+   * Makes the group record in the store which of its jobs succeeded; a job recorded there is not run again,
+   * so a group built the same way by a later process starts where this one failed.
+   * The records are removed once the whole group succeeds. Job names must be unique within the group.
+   * Unless JobHistory already has a store, it keeps the running times in this one, see JobHistory.persistTo().
+   *
+   * @param store where to keep the records, e.g. a Folder
+   * @param key the group's key in the store, stable between runs
+   * @return this group
+   */
+  public BulkJob checkpointTo(ReMap<String, ByteArray> store, String key) {
+    if (isStarted()) throw new IllegalStateException("too late to add checkpoints to a running group");
+    Preconditions.checkArgument(!key.startsWith(JobHistory.KEY_PREFIX), "%s is where JobHistory keeps its times", key);
+    this.checkpoints = store;
+    this.checkpointKey = key;
+    JobHistory.persistToIfNone(store);
+    return this;
+  }
+
+  private String checkpointOf(MrJob job) {
+    return checkpointKey + "/" + job.getName();
+  }
+
+  /**
+   * @param job one of this group's jobs
+   * @return true if the job succeeded in an earlier run of the group, according to the checkpoints
+   */
+  protected boolean isCheckpointed(MrJob job) {
+    if (restored.contains(job)) return true;
+    if (checkpoints == null || !checkpoints.containsKey(checkpointOf(job))) return false;
+    restored.add(job);
+    return true;
+  }
+
+  /**
+   * @param job one of this group's jobs
+   * @return true if there is no need to run the job (again)
+   */
+  protected boolean isDone(MrJob job) {
+    return job.isSuccessful() || isCheckpointed(job);
+  }
+
+  /**
+   * Runs the group again after it failed: the jobs that failed are reset and run again,
+   * the jobs that succeeded, or are checkpointed, are not
+   *
+   * @throws IOException if a job could not be reset
+   */
+  public void resume() throws IOException {
+    reset();
+    start();
+  }
+
+  /**
+   * Cancels the jobs that are running; the ones that did not start stay as they are, ready for resume()
+   */
+  @Override
+  protected void kill() {
+    for (MrJob job : jobs) {
+      if (job.isStarted() && !job.isComplete()) job.cancel();
+    }
+  }
+
+  @Override
+  protected void rebuild() throws IOException {
+    for (MrJob job : jobs) {
+      job.reset();
+    }
+  }
+
+  @Override
+  protected void markStop() {
+    if (stopTime < 0 && isComplete && checkpoints != null && allDone()) {
+      for (String key : checkpoints.listForPrefix(checkpointKey + "/")) {
+        checkpoints.remove(key);
+      }
+    }
+    super.markStop();
+  }
+
+  /**
+   * Gets childCompleted() called on a monitor listener thread when the job completes; call it before starting the job.
+   * Not in the thread that completes the job: that is often a poller, and childCompleted() may start more jobs.
+   *
+   * @param job one of this group's jobs
+   */
+  protected void watch(final MrJob job) {
+    job.onComplete().addListener(new Runnable() {
+      public void run() {
+        childCompleted(job);
+      }
+    }, monitor.executor());
+  }
+
+  /**
+   * Called on a monitor listener thread; it may block briefly, e.g. to start the next jobs
+   *
+   * @param job the job that just completed
+   */
+  protected void childCompleted(MrJob job) {
+    log.info("Finished: " + job.details());
+    checkpoint(job);
+    isComplete();
+  }
+
+  /**
+   * Records the job in the checkpoints if it succeeded
+   *
+   * @param job the job that just completed
+   */
+  protected void checkpoint(MrJob job) {
+    if (checkpoints != null && job.isSuccessful()) {
+      checkpoints.put(checkpointOf(job), new ByteArray(clock.now()));
+    }
+  }
+
+  public boolean waitForCompletion() throws InterruptedException {
+    start();
+    return awaitCompletion();
+  }
+
   public float progress() {
     float p = 0.0f;
     for (MrJob job : jobs) {
-      p += job.progress() / jobs.size();
+      p += (isCheckpointed(job) ? 1.0f : job.progress()) / jobs.size();
     }
     return p;
   }
 
+  @Override
+  public JobMetrics metrics() {
+    JobMetrics metrics = super.metrics();
+    for (MrJob job : jobs) {
+      metrics.plus(job.metrics());
+    }
+    return metrics;
+  }
+
   public boolean isComplete() {
     if (!isComplete) {
       for (MrJob job : jobs) {
-        if (!job.isComplete()) return false;
+        if (!isCheckpointed(job) && !job.isComplete()) return false;
       }
       isComplete = true;
     }
+    if (isStarted) markStop();
     return isComplete;
   }
 
   public boolean isSuccessful() {
-    boolean is = true;
+    isSuccessful = allDone();
+    return super.isSuccessful();
+  }
+
+  private boolean allDone() {
     for (MrJob job : jobs) {
-      if (!job.isSuccessful()) is = false;
+      if (!isDone(job)) return false;
     }
-    isSuccessful = is;
-    return super.isSuccessful();
+    return true;
   }
 
   public String getName() {
@@ -77,7 +218,7 @@ public abstract class BulkJob extends CommonJob {
     StringBuilder sb = new StringBuilder();
     for (MrJob job : jobs) {
       if (sb.length() > 0) sb.append(", ");
-      sb.append(job.details());
+      sb.append(!job.isStarted() && isCheckpointed(job) ? job.getName() + ": DONE before" : job.details());
     }
     return kind() + "(" + sb + "): " + fullStatus();
   }
@@ -89,6 +230,7 @@ public abstract class BulkJob extends CommonJob {
       if (sb.length() > 0) sb.append(", ");
       if (!explanation.isEmpty()) sb.append(job.details());
     }
-    return sb.length() == 0 ? "" : (kind() + "(" + sb + "): " + status());
+    return sb.length() == 0 ? (isCancelled ? getName() + whyFailed() : "") :
+        (kind() + "(" + sb + "): " + status() + (isCancelled ? "," + whyFailed() : ""));
   }
 }
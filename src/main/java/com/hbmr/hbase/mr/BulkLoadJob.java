@@ -0,0 +1,70 @@
+package com.hbmr.hbase.mr;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
+
+/**
+ * Loads HFiles produced by a bulk load mapreduce into a table; the second step of Framework.newBulkLoadJob.
+ * The load runs on one of JobMonitor's workers, so that starting the job does not block.
+ *
+ * @author Vlad Patryshev
+ */
+public class BulkLoadJob extends CommonJob {
+  private final String name;
+  private final Configuration config;
+  private final HFileJob hfiles;
+  private final String tableName;
+
+  /**
+   * @param hfiles the job that writes the HFiles; they are loaded from its last attempt's folder
+   */
+  BulkLoadJob(String name, Configuration config, HFileJob hfiles, String tableName) {
+    this.name = name;
+    this.config = config;
+    this.hfiles = hfiles;
+    this.tableName = tableName;
+  }
+
+  public synchronized void start() {
+    if (!isStarted()) {
+      markStart();
+      isStarted = true;
+      monitor.run(new Runnable() {
+        public void run() {
+          String hfilePath = hfiles.hfilePath();
+          try {
+            new LoadIncrementalHFiles(config).doBulkLoad(new Path(hfilePath), new HTable(config, tableName));
+          } catch (Exception e) {
+            log.error("Could not load " + hfilePath + " into " + tableName, e);
+            isSuccessful = false;
+          }
+          isComplete = true;
+          markStop();
+        }
+      });
+    }
+  }
+
+  public boolean waitForCompletion() throws InterruptedException {
+    start();
+    return awaitCompletion();
+  }
+
+  public float progress() {
+    return isComplete ? 1.0f : 0.0f;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String details() {
+    return String.format("\"%s\" time: %d, %s -> %s: %s", name, timeRunning(), hfiles.hfilePath(), tableName, status());
+  }
+
+  public String explainError() {
+    return isComplete() && !isSuccessful() ? (getName() + whyFailed()) : "";
+  }
+}
@@ -0,0 +1,147 @@
+package com.hbmr.hbase.mr;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import com.google.common.collect.Iterables;
+import com.hbmr.common.collect.ByteArray;
+
+/**
+ * A byte-native flavour of MrAction: keys and values travel as ByteArrays end to end,
+ * no strings are built in between. Row keys and values passed in are views of hadoop buffers,
+ * do not keep them around after the call returns.
+ *
+ * @author Vlad Patryshev
+ */
+public abstract class BytesMrAction extends MrAction {
+
+  /**
+   * Default, empty, implementation of map
+   *
+   * @param rowkey row key, a view, not a copy
+   * @param inputData the row
+   * @param config configuration
+   * @return the key-value map
+   */
+  public Map<ByteArray, ByteArray> mapBytes(ByteArray rowkey, Result inputData, Configuration config) {
+    return Collections.emptyMap();
+  }
+
+  @Override
+  Map<ByteArray, ByteArray> mapBytes(ByteArray rowkey, Result inputData, Mapper<ImmutableBytesWritable, Result, Writable, Writable>.Context context) throws IOException, InterruptedException {
+    return mapBytes(rowkey, inputData, context.getConfiguration());
+  }
+
+  /**
+   * Default, empty, implementation of reduce
+   *
+   * @param valuesToReduce values, as bytes
+   * @param config configuration
+   * @return reduced value, or null if nothing should be written
+   */
+  @Override
+  public ByteArray reduceBytes(Iterable<ByteArray> valuesToReduce, Configuration config) {
+    return null;
+  }
+
+  /**
+   * Reduces values into several columns of the output row, all written with one Put.
+   * A column is named either "family:qualifier" or just "qualifier".
+   * Default is reduceBytes() into the job's output column.
+   *
+   * @param valuesToReduce values, as bytes
+   * @param config configuration
+   * @return column to value map
+   */
+  @Override
+  public Map<ByteArray, ByteArray> reduceColumnsBytes(Iterable<ByteArray> valuesToReduce, Configuration config) {
+    ByteArray reduced = reduceBytes(valuesToReduce, config);
+    return reduced == null ? Collections.<ByteArray, ByteArray>emptyMap() :
+        Collections.singletonMap(Framework.asByteArray(config.get(Framework.OUTPUT_COLUMN)), reduced);
+  }
+
+  /**
+   * Pre-aggregates map output before the shuffle; only called if isAssociative().
+   *
+   * @param valuesToCombine values produced by one map task for one key
+   * @param config configuration
+   * @return combined value, or null
+   */
+  @Override
+  public ByteArray combineBytes(Iterable<ByteArray> valuesToCombine, Configuration config) {
+    return reduceBytes(valuesToCombine, config);
+  }
+
+  /**
+   * Merges an incremental run's value into the one already in the output table.
+   * Default is reduceBytes of the two; right if reduce takes the same kind of values it produces.
+   *
+   * @param existing value in the output table
+   * @param delta value reduced from the changed rows
+   * @param config configuration
+   * @return merged value, or null
+   */
+  @Override
+  public ByteArray mergeBytes(ByteArray existing, ByteArray delta, Configuration config) {
+    return reduceBytes(Arrays.asList(existing, delta), config);
+  }
+
+  /**
+   * String bridge to mapBytes, for callers that only know the string flavour.
+   * Values that are not text need not survive the trip through a string.
+   */
+  @Override
+  public final Map<String, String> map(String rowkey, Result inputData, Configuration config) {
+    return toStrings(mapBytes(Framework.asByteArray(rowkey), inputData, config));
+  }
+
+  /**
+   * String bridge to reduceBytes
+   */
+  @Override
+  public final String reduce(Iterable<String> valuesToReduce, Configuration config) {
+    return Framework.asString(reduceBytes(Iterables.transform(valuesToReduce, Framework.STRING_TO_BYTEARRAY), config));
+  }
+
+  /**
+   * String bridge to reduceColumnsBytes
+   */
+  @Override
+  public final Map<String, String> reduceColumns(Iterable<String> valuesToReduce, Configuration config) {
+    return toStrings(reduceColumnsBytes(Iterables.transform(valuesToReduce, Framework.STRING_TO_BYTEARRAY), config));
+  }
+
+  /**
+   * String bridge to mergeBytes
+   */
+  @Override
+  public final String merge(String existing, String delta, Configuration config) {
+    return Framework.asString(mergeBytes(Framework.asByteArray(existing), Framework.asByteArray(delta), config));
+  }
+
+  /**
+   * String bridge to combineBytes
+   */
+  @Override
+  public final String combine(Iterable<String> valuesToCombine, Configuration config) {
+    return Framework.asString(combineBytes(Iterables.transform(valuesToCombine, Framework.STRING_TO_BYTEARRAY), config));
+  }
+
+  private static Map<String, String> toStrings(Map<ByteArray, ByteArray> map) {
+    if (map.isEmpty()) return Collections.emptyMap();
+    Map<String, String> result = new LinkedHashMap<String, String>();
+    for (Map.Entry<ByteArray, ByteArray> entry : map.entrySet()) {
+      result.put(Framework.asString(entry.getKey()), Framework.asString(entry.getValue()));
+    }
+    return result;
+  }
+}
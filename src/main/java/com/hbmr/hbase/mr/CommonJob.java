@@ -1,8 +1,15 @@
 package com.hbmr.hbase.mr;
 
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.hbmr.common.Clock;
 import com.hbmr.common.RealClock;
 
@@ -20,9 +27,19 @@ public abstract class CommonJob implements MrJob {
   protected volatile boolean isSuccessful = true;
   protected volatile long startTime;
   protected volatile long stopTime = -1;
+  protected volatile boolean isCancelled = false;
+  private volatile String cancelReason;
+  private volatile long deadline = -1;
+  private volatile long timeout = -1;
+  private boolean deadlineWatched = false;
+  /**
+   * How often (millis) a job with a deadline checks it
+   */
+  public static final long DEADLINE_CHECK_INTERVAL = 1000;
   protected Clock clock = new RealClock();
-  public static final int DEFAULT_COMPLETION_POLL_INTERVAL = 5000;
-  private long completionPollIntervalMillis = DEFAULT_COMPLETION_POLL_INTERVAL;
+  protected JobMonitor monitor = JobMonitor.shared();
+  private volatile SettableFuture<Status> completion = SettableFuture.create();
+  private final Object stopLock = new Object();
 
   public boolean isStarted() {
     return isStarted;
@@ -34,19 +51,189 @@ public abstract class CommonJob implements MrJob {
   }
 
   public boolean isSuccessful() {
-    return isStarted() && isComplete() && isSuccessful;
+    return isStarted() && isComplete() && isSuccessful && !isCancelled;
   }
 
   protected void markStart() {
     startTime = clock.now();
     log.info("Starting job " + getName());
+    watchDeadline();
   }
 
+  /**
+   * Records the stop time and notifies the listeners; only the first call after the job is complete counts
+   */
   protected void markStop() {
     if (stopTime < 0 && isComplete) {
-      stopTime = clock.now();
-      log.info("Stopped job " + getName() + ", took " + timeRunning() + "ms ->" + status());
+      synchronized (stopLock) {
+        if (stopTime >= 0) return;
+        stopTime = clock.now();
+      }
+      Status status = status();
+      log.info("Stopped job " + getName() + ", took " + timeRunning() + "ms ->" + status);
+      if (status == Status.SUCCESS) JobHistory.record(getName(), stopTime - startTime);
+      completion.set(status);
+    }
+  }
+
+  public void cancel() {
+    cancel("cancelled");
+  }
+
+  private void cancel(String reason) {
+    if (isComplete()) return;
+    synchronized (stopLock) {
+      if (isCancelled) return;
+      isCancelled = true;
+      cancelReason = reason;
+    }
+    log.info("Cancelling job " + getName() + ": " + reason);
+    kill();
+    if (!isStarted) startTime = clock.now();
+    isStarted = true;
+    isSuccessful = false;
+    isComplete = true;
+    markStop();
+  }
+
+  /**
+   * Stops whatever the job has running; called by cancel(), which then marks the job complete and failed.
+   * The default has nothing to stop.
+   */
+  protected void kill() {
+  }
+
+  /**
+   * @return " failed", or why the job was stopped, to go after its name
+   */
+  protected String whyFailed() {
+    return cancelReason == null ? " failed" : " " + cancelReason;
+  }
+
+  public void setDeadline(long time) {
+    deadline = time;
+    if (isStarted) watchDeadline();
+  }
+
+  public void setTimeout(long millis) {
+    Preconditions.checkArgument(millis > 0, "Timeout must be positive, got %s", millis);
+    timeout = millis;
+    if (isStarted) watchDeadline();
+  }
+
+  /**
+   * @return the earliest of the deadline and the start time plus the timeout, or -1 if there is none
+   */
+  public long deadline() {
+    long byTimeout = timeout > 0 && isStarted ? startTime + timeout : -1;
+    return deadline < 0 ? byTimeout : byTimeout < 0 ? deadline : Math.min(deadline, byTimeout);
+  }
+
+  /**
+   * Cancels the job if it is past its deadline; the shared monitor has it called on a worker while the job runs
+   *
+   * @return true if the job was cancelled
+   */
+  public boolean checkDeadline() {
+    if (!isPastDeadline()) return false;
+    cancel("timed out");
+    return true;
+  }
+
+  private boolean isPastDeadline() {
+    long deadline = deadline();
+    return deadline >= 0 && isStarted && !isComplete() && clock.now() >= deadline;
+  }
+
+  private void watchDeadline() {
+    if (deadline() < 0) return;
+    synchronized (stopLock) {
+      if (deadlineWatched) return;
+      deadlineWatched = true;
+    }
+    monitor.watch(new Callable<Boolean>() {
+      public Boolean call() {
+        boolean late = isPastDeadline();
+        if (late) {
+          // killing a job blocks, so it is not done on the poller
+          monitor.run(new Runnable() {
+            public void run() {
+              checkDeadline();
+            }
+
+            @Override
+            public String toString() {
+              return "timing out " + getName();
+            }
+          });
+        }
+        if (late || isComplete()) {
+          synchronized (stopLock) {
+            deadlineWatched = false;
+          }
+          return true;
+        }
+        return false;
+      }
+
+      @Override
+      public String toString() {
+        return "deadline of " + getName();
+      }
+    }, DEADLINE_CHECK_INTERVAL);
+  }
+
+  public ListenableFuture<Status> onComplete() {
+    return completion;
+  }
+
+  public void reset() throws IOException {
+    if (!isStarted()) return;
+    if (!isComplete()) throw new IllegalStateException("cannot reset a running job " + getName());
+    if (isSuccessful()) return;
+    rebuild();
+    synchronized (stopLock) {
+      completion = SettableFuture.create();
+      lastProgress = 0.0f;
+      isSuccessful = true;
+      isComplete = false;
+      stopTime = -1;
+      isCancelled = false;
+      cancelReason = null;
+      isStarted = false;
+    }
+    log.info("Reset job " + getName());
+  }
+
+  /**
+   * Prepares whatever the job needs to run again; called by reset() on a job that failed
+   *
+   * @throws IOException
+   */
+  protected void rebuild() throws IOException {
+  }
+
+  /**
+   * Blocks until the job completes, without polling
+   *
+   * @return true if the job succeeded
+   * @throws InterruptedException
+   */
+  protected boolean awaitCompletion() throws InterruptedException {
+    JobMonitor.checkMayBlock("Waiting for " + getName());
+    try {
+      onComplete().get();
+    } catch (ExecutionException e) {
+      log.error("Failed waiting for " + this, e);
     }
+    return isSuccessful();
+  }
+
+  /**
+   * Just time and progress; jobs that know more add their counts
+   */
+  public JobMetrics metrics() {
+    return new JobMetrics(timeRunning(), progress());
   }
 
   public long timeRunning() {
@@ -57,10 +244,6 @@ public abstract class CommonJob implements MrJob {
     return !isStarted() ? Status.READY : !isComplete() ? Status.RUNNING : isSuccessful() ? Status.SUCCESS : Status.ERROR;
   }
 
-  protected void sleep() throws InterruptedException {
-    clock.sleep(completionPollIntervalMillis);
-  }
-
   @Override
   public String toString() {
     return getName() + ": " + status();
@@ -0,0 +1,252 @@
+package com.hbmr.hbase.mr;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A group of mapreduce jobs with dependencies between them: a job starts as soon as all the jobs it depends on
+ * have succeeded (and there is a free slot, see ParallelJob.setForkFactor()).
+ * Of the jobs that are ready, the one on the longest path to the end of the graph goes first;
+ * path lengths are estimated from the previous runs' times, see JobHistory. The history survives the process
+ * if it has a store, e.g. the group's checkpoint store; jobs that never ran count as an average job,
+ * and with no history at all, the longest path is the one with the most jobs.
+ * If a job fails, the jobs that depend on it, directly or not, are skipped; the rest of the graph goes on,
+ * unless setFailFast(true) is called.
+ *
+ * @author Vlad Patryshev
+ */
+public class DagJob extends ParallelJob implements MrJob {
+  private final Map<MrJob, Set<MrJob>> dependencies = new HashMap<MrJob, Set<MrJob>>();
+  private final Map<MrJob, Set<MrJob>> dependents = new HashMap<MrJob, Set<MrJob>>();
+  private final Set<MrJob> succeeded = new HashSet<MrJob>();
+  private final Map<MrJob, MrJob> skipped = new HashMap<MrJob, MrJob>();
+  private Map<MrJob, Long> criticalPath;
+
+  public DagJob(MrJob... jobs) {
+    super(jobs);
+    setFailFast(false);
+  }
+
+  public DagJob(Collection<MrJob> jobs) {
+    super(jobs);
+    setFailFast(false);
+  }
+
+  /**
+   * Adds a job that can only start after the given ones succeed
+   *
+   * @param job the job
+   * @param dependencies jobs it depends on, already in this group
+   */
+  public void add(MrJob job, MrJob... dependencies) {
+    add(job);
+    dependsOn(job, dependencies);
+  }
+
+  /**
+   * Declares dependencies between jobs of this group
+   *
+   * @param job a job in this group
+   * @param dependencies jobs in this group that must succeed before the job starts
+   * @return this group
+   */
+  public synchronized DagJob dependsOn(MrJob job, MrJob... dependencies) {
+    if (isStarted()) throw new IllegalStateException("too late to add dependencies to a running group");
+    Preconditions.checkArgument(jobs.contains(job), "%s is not in this group", job);
+    for (MrJob dependency : dependencies) {
+      Preconditions.checkArgument(jobs.contains(dependency), "%s is not in this group", dependency);
+      Preconditions.checkArgument(!reaches(dependency, job), "%s already depends on %s", dependency, job);
+      newEdges(this.dependencies, job).add(dependency);
+      newEdges(dependents, dependency).add(job);
+    }
+    return this;
+  }
+
+  private static Set<MrJob> newEdges(Map<MrJob, Set<MrJob>> graph, MrJob job) {
+    Set<MrJob> edges = graph.get(job);
+    if (edges == null) {
+      edges = new LinkedHashSet<MrJob>();
+      graph.put(job, edges);
+    }
+    return edges;
+  }
+
+  private static Set<MrJob> edges(Map<MrJob, Set<MrJob>> graph, MrJob job) {
+    Set<MrJob> edges = graph.get(job);
+    return edges == null ? Collections.<MrJob>emptySet() : edges;
+  }
+
+  /**
+   * Depth first, with a stack rather than recursion, and visiting every job once, so that neither
+   * a long chain nor a lot of diamonds make it expensive
+   *
+   * @return true if job depends on other, directly or not, or if they are the same job
+   */
+  private boolean reaches(MrJob job, MrJob other) {
+    Set<MrJob> visited = new HashSet<MrJob>();
+    Deque<MrJob> toVisit = new ArrayDeque<MrJob>();
+    toVisit.push(job);
+    while (!toVisit.isEmpty()) {
+      MrJob next = toVisit.pop();
+      if (next == other) return true;
+      if (!visited.add(next)) continue;
+      for (MrJob dependency : edges(dependencies, next)) {
+        if (!visited.contains(dependency)) toVisit.push(dependency);
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void start() {
+    List<MrJob> done = new ArrayList<MrJob>();
+    for (MrJob job : jobs) {
+      if (isDone(job)) done.add(job);
+    }
+    synchronized (this) {
+      if (criticalPath == null) criticalPath = criticalPath();
+      succeeded.addAll(done);
+    }
+    super.start();
+  }
+
+  @Override
+  protected void rebuild() throws IOException {
+    super.rebuild();
+    synchronized (this) {
+      skipped.clear();
+    }
+  }
+
+  /**
+   * For each job, expected time from its start to the end of the graph: its own time plus the longest path after it.
+   * Jobs that never ran before are expected to take as long as an average job that did.
+   */
+  private Map<MrJob, Long> criticalPath() {
+    long known = 0;
+    int count = 0;
+    for (MrJob job : jobs) {
+      long expected = JobHistory.expected(job.getName());
+      if (expected >= 0) {
+        known += expected;
+        count++;
+      }
+    }
+    long unknown = count == 0 ? 1 : Math.max(1, known / count);
+    Map<MrJob, Long> paths = new HashMap<MrJob, Long>();
+    for (MrJob job : jobs) {
+      pathFrom(job, unknown, paths);
+    }
+    return paths;
+  }
+
+  private long pathFrom(MrJob job, long unknown, Map<MrJob, Long> paths) {
+    Long path = paths.get(job);
+    if (path == null) {
+      long longest = 0;
+      for (MrJob dependent : edges(dependents, job)) {
+        longest = Math.max(longest, pathFrom(dependent, unknown, paths));
+      }
+      long expected = JobHistory.expected(job.getName());
+      path = (expected < 0 ? unknown : expected) + longest;
+      paths.put(job, path);
+    }
+    return path;
+  }
+
+  private boolean isReady(MrJob job) {
+    return succeeded.containsAll(edges(dependencies, job));
+  }
+
+  @Override
+  protected MrJob nextToStart(List<MrJob> queue) {
+    MrJob best = null;
+    for (MrJob job : queue) {
+      if (isReady(job) && (best == null || criticalPath.get(job) > criticalPath.get(best))) {
+        best = job;
+      }
+    }
+    return best;
+  }
+
+  @Override
+  protected void childCompleted(MrJob job) {
+    boolean succeeded = job.isSuccessful();
+    synchronized (this) {
+      if (succeeded) {
+        this.succeeded.add(job);
+      } else {
+        skipDependents(job, job);
+      }
+    }
+    super.childCompleted(job);
+  }
+
+  private void skipDependents(MrJob job, MrJob failed) {
+    for (MrJob dependent : edges(dependents, job)) {
+      if (!skipped.containsKey(dependent)) {
+        skipped.put(dependent, failed);
+        drop(dependent);
+        log.info("Skipping " + dependent.getName() + ", since " + failed.getName() + " failed");
+        skipDependents(dependent, failed);
+      }
+    }
+  }
+
+  private synchronized String nodeDetails(MrJob job) {
+    MrJob failed = skipped.get(job);
+    if (failed != null) return job.getName() + ": SKIPPED, " + failed.getName() + " failed";
+    if (job.isStarted()) return job.details();
+    Set<MrJob> waitingFor = new LinkedHashSet<MrJob>(edges(dependencies, job));
+    waitingFor.removeAll(succeeded);
+    StringBuilder sb = new StringBuilder();
+    for (MrJob dependency : waitingFor) {
+      sb.append(sb.length() == 0 ? "" : ", ").append(dependency.getName());
+    }
+    return job.getName() + ": " + (sb.length() == 0 ? "ready" : "waiting for " + sb);
+  }
+
+  @Override
+  public String details() {
+    StringBuilder sb = new StringBuilder();
+    for (MrJob job : jobs) {
+      if (sb.length() > 0) sb.append(", ");
+      sb.append(nodeDetails(job));
+    }
+    return kind() + "(" + sb + "): " + fullStatus() +
+        String.format(", running: %d/%d, queued: %d", running(), getForkFactor(), queued());
+  }
+
+  @Override
+  public String explainError() {
+    StringBuilder sb = new StringBuilder();
+    for (MrJob job : jobs) {
+      boolean isSkipped;
+      synchronized (this) {
+        isSkipped = skipped.containsKey(job);
+      }
+      if (isSkipped || !job.explainError().isEmpty()) {
+        if (sb.length() > 0) sb.append(", ");
+        sb.append(nodeDetails(job));
+      }
+    }
+    return sb.length() == 0 ? "" : (kind() + "(" + sb + "): " + status());
+  }
+
+  @Override
+  protected String kind() {
+    return "dag";
+  }
+}
@@ -3,8 +3,13 @@ package com.hbmr.hbase.mr;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.google.common.base.Functions;
@@ -14,6 +19,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.*;
 import org.apache.hadoop.hbase.client.*;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.mapreduce.HFileOutputFormat;
 import org.apache.hadoop.hbase.mapreduce.TableMapReduceUtil;
 import org.apache.hadoop.hbase.mapreduce.TableMapper;
 import org.apache.hadoop.hbase.mapreduce.TableOutputFormat;
@@ -21,6 +27,7 @@ import org.apache.hadoop.hbase.mapreduce.TableReducer;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.OutputFormat;
@@ -29,6 +36,9 @@ import org.apache.hadoop.util.GenericOptionsParser;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Iterables;
+import com.hbmr.common.Clock;
+import com.hbmr.common.RealClock;
+import com.hbmr.common.collect.ByteArray;
 /**
  * Mapreduce framework. Work in progress, will be documented later on.
  *
@@ -39,10 +49,28 @@ public class Framework {
   public static final String ACTION_CLASS_KEY = "mr.framework.action.class";
   public static final String COUNTER_KEY = "counter.key";
   public static final String OUTPUT_COLUMN = "mr.framework.output";
+  /**
+   * Memory (in bytes) for in-mapper aggregation of associative actions' output; 0 means no aggregation
+   */
+  public static final String MAP_AGGREGATION_BUFFER = "mr.framework.map.aggregation.buffer";
+  /**
+   * If true, reduced values are merged into what is already in the output table (see MrAction.merge) instead of replacing it
+   */
+  public static final String MERGE_OUTPUT = "mr.framework.output.merge";
+  static final String SPECULATIVE_REDUCE = "mapred.reduce.tasks.speculative.execution";
+
+  /**
+   * Framework's own hadoop counters; see JobMetrics for the rest
+   */
+  public enum Counters {
+    BYTES_SCANNED
+  }
+
   final static boolean LOCAL_HBASE = true;
   final static String WHERE_HBASE = LOCAL_HBASE ? "localhost" : "undefined";
 
   private Configuration config;
+  Clock clock = new RealClock();
 
   public Framework(String... extraParams) {
     configure(extraParams);
@@ -88,30 +116,134 @@ public class Framework {
   }
 
   public static class DelegatingMapper extends TableMapper<Writable, Writable> {
+    // approximate cost of a buffered entry besides the bytes themselves: hash entry, two ByteArrays, two ByteBuffers
+    private static final int ENTRY_OVERHEAD = 200;
 
     private MrAction action;
+    private Configuration configuration;
+    private Map<ByteArray, ByteArray> buffer;
+    private long bufferLimit;
+    private long bufferSize;
+    private Counter bytesScanned;
+    private Sampler sampler;
+    private long lastMapEnd;
 
     @Override
     protected void setup(Mapper<ImmutableBytesWritable, Result, Writable, Writable>.Context context) throws IOException,
         InterruptedException {
       try {
-        Configuration configuration = context.getConfiguration();
+        configuration = context.getConfiguration();
         action = mrAction(configuration);
         Preconditions.checkNotNull(action);
       } catch (Exception e) {
         throw new IOException("Failed to instantiate MrAction: " + e);
       }
+      bytesScanned = context.getCounter(Counters.BYTES_SCANNED);
+      sampler = new Sampler(Sampler.MAP, configuration);
+      bufferLimit = configuration.getLong(MAP_AGGREGATION_BUFFER, 0);
+      if (bufferLimit > 0 && action.isAssociative()) {
+        buffer = new HashMap<ByteArray, ByteArray>();
+      }
     }
 
     @Override
     public void map(ImmutableBytesWritable row, Result values,
                     Mapper<ImmutableBytesWritable, Result, Writable, Writable>.Context context) throws IOException, InterruptedException {
-      Map<String, String> map = action.map(asString(row), values, context);
-      for (String key : map.keySet()) {
-        context.write(
-            newIbw(key),
-            newIbw(map.get(key)));
+      boolean sampled = sampler.sample();
+      long start = 0;
+      if (sampled) {
+        start = System.nanoTime();
+        if (lastMapEnd != 0) sampler.record(Sampler.Phase.SCAN_WAIT, start - lastMapEnd);
+      }
+      countBytes(values);
+      Map<ByteArray, ByteArray> map = action.mapBytes(asByteArray(row), values, context);
+      if (sampled) sampler.record(Sampler.Phase.ACTION, System.nanoTime() - start);
+      for (Map.Entry<ByteArray, ByteArray> entry : map.entrySet()) {
+        if (entry.getKey() != null && entry.getValue() != null) {
+          if (sampled) {
+            timedWrite(entry.getKey(), entry.getValue(), context);
+          } else if (buffer == null) {
+            context.write(
+                newIbw(entry.getKey()),
+                newIbw(entry.getValue()));
+          } else {
+            aggregate(entry.getKey(), entry.getValue());
+          }
+        }
+      }
+      if (buffer != null && bufferSize >= bufferLimit) {
+        flush(context);
+      }
+      lastMapEnd = sampler.nextSampled() ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Same as the write in map(), timed; with the aggregation buffer, aggregating counts as writing
+     */
+    private void timedWrite(ByteArray key, ByteArray value,
+                            Mapper<ImmutableBytesWritable, Result, Writable, Writable>.Context context) throws IOException, InterruptedException {
+      long start = System.nanoTime();
+      if (buffer == null) {
+        ImmutableBytesWritable k = newIbw(key);
+        ImmutableBytesWritable v = newIbw(value);
+        long serialized = System.nanoTime();
+        context.write(k, v);
+        sampler.record(Sampler.Phase.SERIALIZATION, serialized - start);
+        sampler.record(Sampler.Phase.WRITE, System.nanoTime() - serialized);
+      } else {
+        aggregate(key, value);
+        sampler.record(Sampler.Phase.WRITE, System.nanoTime() - start);
+      }
+    }
+
+    private void countBytes(Result values) {
+      if (bytesScanned == null) return;
+      long bytes = 0;
+      KeyValue[] cells = values.raw();
+      if (cells != null) {
+        for (KeyValue cell : cells) {
+          bytes += cell.getLength();
+        }
+      }
+      bytesScanned.increment(bytes);
+    }
+
+    /**
+     * Merges a value into the aggregation buffer using action's combine.
+     * Keys and values are copied, since they may be views of hadoop's buffers.
+     */
+    private void aggregate(ByteArray key, ByteArray value) {
+      ByteArray old = buffer.get(key);
+      if (old == null) {
+        buffer.put(copyOf(key), copyOf(value));
+        bufferSize += key.size() + value.size() + ENTRY_OVERHEAD;
+      } else {
+        ByteArray merged = action.combineBytes(Arrays.asList(old, copyOf(value)), configuration);
+        if (merged == null || merged.isNull()) {
+          buffer.remove(key);
+          bufferSize -= key.size() + old.size() + ENTRY_OVERHEAD;
+        } else {
+          buffer.put(key, merged);
+          bufferSize += merged.size() - old.size();
+        }
+      }
+    }
+
+    private void flush(Mapper<ImmutableBytesWritable, Result, Writable, Writable>.Context context) throws IOException, InterruptedException {
+      for (Map.Entry<ByteArray, ByteArray> entry : buffer.entrySet()) {
+        context.write(newIbw(entry.getKey()), newIbw(entry.getValue()));
+      }
+      buffer.clear();
+      bufferSize = 0;
+    }
+
+    @Override
+    protected void cleanup(Mapper<ImmutableBytesWritable, Result, Writable, Writable>.Context context) throws IOException, InterruptedException {
+      if (buffer != null) {
+        flush(context);
       }
+      sampler.publish(context);
+      super.cleanup(context);
     }
   }
 
@@ -120,30 +252,125 @@ public class Framework {
     private MrAction action;
     private byte[] familyName;
     private byte[] columnName;
-    Function<Object, String> toString = new Function<Object, String>() {
+    private Columns columns;
+    private Configuration configuration;
+    HTableInterface output;
+    private int mergeBatch;
+    private final List<ReducedRow> toMerge = new ArrayList<ReducedRow>();
+    private Sampler sampler;
+    private int valuesSeen;
+    Function<Object, ByteArray> toBytes = new Function<Object, ByteArray>() {
       @Override
-      public String apply(Object input) {
-        return input instanceof Result ? new String(((Result) input).getValue(familyName, columnName)) :
-               input instanceof ImmutableBytesWritable ? asString((ImmutableBytesWritable) input) : input.toString();
+      public ByteArray apply(Object input) {
+        valuesSeen++;
+        return input instanceof Result ? new ByteArray(((Result) input).getValue(familyName, columnName)) :
+               input instanceof ImmutableBytesWritable ? asByteArray((ImmutableBytesWritable) input) : asByteArray(input.toString());
       }
     };
 
     @Override
     protected void setup(Reducer<ImmutableBytesWritable, Result, Writable, Writable>.Context context) throws IOException, InterruptedException {
       try {
-        Configuration configuration = context.getConfiguration();
+        configuration = context.getConfiguration();
         String[] col = configuration.get(OUTPUT_COLUMN).split(":");
         familyName = col[0].getBytes();
         columnName = col[1].getBytes();
+        columns = new Columns(familyName);
         action = mrAction(configuration);
       } catch (Exception e) {
         throw new IOException("Failed to instantiate MrAction", e);
       }
+      if (configuration.getBoolean(MERGE_OUTPUT, false) && output == null) {
+        output = new HTable(configuration, configuration.get(TableOutputFormat.OUTPUT_TABLE));
+      }
+      mergeBatch = configuration.getInt(HBaseOutputFormat.BATCH_SIZE, HBaseOutputFormat.DEFAULT_BATCH_SIZE);
+      sampler = new Sampler(Sampler.REDUCE, configuration);
     }
 
-    private Put put(String row, Object value) {
-      Put put = new Put(row.getBytes());
-      put.add(familyName, columnName, value.toString().getBytes());
+    @Override
+    protected void cleanup(Reducer<ImmutableBytesWritable, Result, Writable, Writable>.Context context) throws IOException, InterruptedException {
+      if (output != null) {
+        merge(context);
+        output.close();
+      }
+      sampler.publish(context);
+      super.cleanup(context);
+    }
+
+    /**
+     * Merges the rows reduced so far with what is already in the output table, for incremental jobs.
+     * The existing rows are read with one call per batch; batches are as big as the output format's,
+     * so that a batch of reads is followed by about one batch of writes.
+     *
+     * @param context where the merged puts go
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void merge(Reducer<ImmutableBytesWritable, Result, Writable, Writable>.Context context) throws IOException, InterruptedException {
+      if (toMerge.isEmpty()) return;
+      List<Get> gets = new ArrayList<Get>(toMerge.size());
+      for (ReducedRow row : toMerge) {
+        Get get = new Get(row.key);
+        for (ByteArray spec : row.cells.keySet()) {
+          if (spec != null) {
+            byte[][] column = columns.get(spec);
+            get.addColumn(column[0], column[1]);
+          }
+        }
+        gets.add(get);
+      }
+      long start = sampler.isOn() ? System.nanoTime() : 0;
+      Result[] existing = output.get(gets);
+      if (sampler.isOn()) sampler.record(Sampler.Phase.MERGE_READ, System.nanoTime() - start);
+      for (int i = 0; i < toMerge.size(); i++) {
+        ReducedRow row = toMerge.get(i);
+        Put put = put(row.key, merge(row.cells, existing[i]));
+        if (put != null) {
+          context.write(new ImmutableBytesWritable(row.key), put);
+          HBaseOutputFormat.count(context, put);
+        }
+      }
+      toMerge.clear();
+    }
+
+    /**
+     * Merges reduced cells with the ones already in the output row
+     *
+     * @param cells column to reduced value map
+     * @param existing the output row, maybe empty
+     * @return column to merged value map
+     */
+    private Map<ByteArray, ByteArray> merge(Map<ByteArray, ByteArray> cells, Result existing) {
+      if (existing == null || existing.isEmpty()) return cells;
+      Map<ByteArray, ByteArray> merged = new LinkedHashMap<ByteArray, ByteArray>();
+      for (Map.Entry<ByteArray, ByteArray> cell : cells.entrySet()) {
+        ByteArray value = cell.getValue();
+        if (cell.getKey() != null && value != null && !value.isNull()) {
+          byte[][] column = columns.get(cell.getKey());
+          byte[] old = existing.getValue(column[0], column[1]);
+          merged.put(cell.getKey(), old == null ? value : action.mergeBytes(new ByteArray(old), value, configuration));
+        }
+      }
+      return merged;
+    }
+
+    /**
+     * Folds all the reduced cells of a row into one Put
+     *
+     * @param row row key
+     * @param cells column to value map
+     * @return a put, or null if there is nothing to write
+     */
+    private Put put(byte[] row, Map<ByteArray, ByteArray> cells) {
+      Put put = null;
+      for (Map.Entry<ByteArray, ByteArray> cell : cells.entrySet()) {
+        ByteArray value = cell.getValue();
+        if (cell.getKey() != null && value != null && !value.isNull()) {
+          if (put == null) put = new Put(row);
+          byte[][] column = columns.get(cell.getKey());
+          put.add(column[0], column[1], bytesOf(value));
+        }
+      }
       return put;
     }
 
@@ -151,31 +378,188 @@ public class Framework {
     protected void reduce(ImmutableBytesWritable key, Iterable<Result> values, Context context) throws IOException, InterruptedException {
       Preconditions.checkNotNull(values);
       Preconditions.checkNotNull(action);
-      Iterable<String> valuesToReduce =
-          values == null ? Collections.<String>emptyList() :
+      Iterable<ByteArray> valuesToReduce =
+          values == null ? Collections.<ByteArray>emptyList() :
                            Iterables.transform(
                                Iterables.filter(values, Predicates.<Object>notNull()),
-                               toString);
+                               toBytes);
+
+      boolean sampled = sampler.sample();
+      valuesSeen = 0;
+      long start = sampled ? System.nanoTime() : 0;
+      Map<ByteArray, ByteArray> cells = action.reduceColumnsBytes(valuesToReduce, context == null ? null : context.getConfiguration());
+      if (sampler.isOn()) sampler.record(Sampler.Phase.VALUES_PER_KEY, valuesSeen);
+      if (output != null) {
+        if (sampled) sampler.record(Sampler.Phase.ACTION, System.nanoTime() - start);
+        if (!cells.isEmpty()) {
+          toMerge.add(new ReducedRow(key.copyBytes(), cells));
+          if (toMerge.size() >= mergeBatch) merge(context);
+        }
+        return;
+      }
+      if (!sampled) {
+        Put put = put(bytesOf(key), cells);
+        if (put != null) {
+          context.write(key, put);
+          HBaseOutputFormat.count(context, put);
+        }
+        return;
+      }
+
+      long reduced = System.nanoTime();
+      sampler.record(Sampler.Phase.ACTION, reduced - start);
+      Put put = put(bytesOf(key), cells);
+      long serialized = System.nanoTime();
+      sampler.record(Sampler.Phase.SERIALIZATION, serialized - reduced);
+      if (put != null) {
+        context.write(key, put);
+        sampler.record(Sampler.Phase.WRITE, System.nanoTime() - serialized);
+        HBaseOutputFormat.count(context, put);
+      }
+    }
+  }
+
+  /**
+   * A reduced row waiting to be merged with the output table; the cells are copied, the action may return views
+   */
+  private static class ReducedRow {
+    final byte[] key;
+    final Map<ByteArray, ByteArray> cells = new LinkedHashMap<ByteArray, ByteArray>();
+
+    ReducedRow(byte[] key, Map<ByteArray, ByteArray> cells) {
+      this.key = key;
+      for (Map.Entry<ByteArray, ByteArray> cell : cells.entrySet()) {
+        ByteArray value = cell.getValue();
+        this.cells.put(cell.getKey() == null ? null : copyOf(cell.getKey()), value == null ? null : copyOf(value));
+      }
+    }
+  }
+
+  /**
+   * Parsed output column names; reducers see the same few columns over and over, so they are cached
+   */
+  static class Columns {
+    private final byte[] defaultFamily;
+    private final Map<ByteArray, byte[][]> cache = new HashMap<ByteArray, byte[][]>();
+
+    Columns(byte[] defaultFamily) {
+      this.defaultFamily = defaultFamily;
+    }
 
-      String reduced = action.reduce(valuesToReduce, context == null ? null : context.getConfiguration());
-      if (reduced != null) {
-        context.write(key, put(Framework.asString(key), reduced));
+    byte[][] get(ByteArray spec) {
+      byte[][] column = cache.get(spec);
+      if (column == null) {
+        column = column(spec, defaultFamily);
+        cache.put(copyOf(spec), column);
       }
+      return column;
     }
   }
 
-  private Job buildJob(String name, Class<? extends MrAction> mrClass) throws IOException {
+  /**
+   * Reducer for bulk load jobs: instead of Puts, writes KeyValues, sorted, for HFileOutputFormat.
+   * Rows come sorted from the shuffle, and partitioned by region boundaries.
+   */
+  static class BulkLoadReducer extends Reducer<ImmutableBytesWritable, ImmutableBytesWritable, ImmutableBytesWritable, KeyValue> {
+
+    private MrAction action;
+    private Columns columns;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+      try {
+        Configuration configuration = context.getConfiguration();
+        columns = new Columns(configuration.get(OUTPUT_COLUMN).split(":")[0].getBytes());
+        action = mrAction(configuration);
+      } catch (Exception e) {
+        throw new IOException("Failed to instantiate MrAction", e);
+      }
+    }
+
+    @Override
+    protected void reduce(ImmutableBytesWritable key, Iterable<ImmutableBytesWritable> values, Context context) throws IOException, InterruptedException {
+      Map<ByteArray, ByteArray> cells = action.reduceColumnsBytes(Iterables.transform(values, IBW_TO_BYTEARRAY), context.getConfiguration());
+      if (cells.isEmpty()) return;
+      byte[] row = bytesOf(key);
+      List<KeyValue> kvs = new ArrayList<KeyValue>(cells.size());
+      for (Map.Entry<ByteArray, ByteArray> cell : cells.entrySet()) {
+        ByteArray value = cell.getValue();
+        if (cell.getKey() != null && value != null && !value.isNull()) {
+          byte[][] column = columns.get(cell.getKey());
+          kvs.add(new KeyValue(row, column[0], column[1], bytesOf(value)));
+        }
+      }
+      Collections.sort(kvs, KeyValue.COMPARATOR);
+      for (KeyValue kv : kvs) {
+        context.write(key, kv);
+      }
+    }
+  }
+
+  /**
+   * Pre-aggregates map output with action's combine before it goes to the shuffle.
+   * Only installed for actions that declare themselves associative.
+   */
+  static class DelegatingCombiner extends Reducer<ImmutableBytesWritable, ImmutableBytesWritable, ImmutableBytesWritable, ImmutableBytesWritable> {
+
+    private MrAction action;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+      try {
+        action = mrAction(context.getConfiguration());
+      } catch (Exception e) {
+        throw new IOException("Failed to instantiate MrAction", e);
+      }
+    }
+
+    @Override
+    protected void reduce(ImmutableBytesWritable key, Iterable<ImmutableBytesWritable> values, Context context) throws IOException, InterruptedException {
+      ByteArray combined = action.combineBytes(Iterables.transform(values, IBW_TO_BYTEARRAY), context.getConfiguration());
+      if (combined != null && !combined.isNull()) {
+        context.write(key, newIbw(combined));
+      }
+    }
+  }
+
+  /**
+   * A job that runs the action; associative actions also get DelegatingCombiner
+   */
+  Job buildJob(String name, Class<? extends MrAction> mrClass) throws IOException {
     Job job = new Job(config, name);
     Configuration config = job.getConfiguration();
-    ((JobConf) config).setJar(findMyJar());
+    String jar = findMyJar();
+    if (jar != null) ((JobConf) config).setJar(jar); // null when run from classes, e.g. in tests
     config.set(ACTION_CLASS_KEY, mrClass.getName());
+    if (newAction(mrClass).isAssociative()) {
+      job.setCombinerClass(DelegatingCombiner.class);
+    }
     return job;
   }
 
+  private static MrAction newAction(Class<? extends MrAction> mrClass) throws IOException {
+    try {
+      return mrClass.newInstance();
+    } catch (Exception e) {
+      throw new IOException("Failed to instantiate MrAction " + mrClass.getName(), e);
+    }
+  }
+
+  /**
+   * Builds a job that scans a whole family; scan settings are chosen by ScanPlanner
+   *
+   * @param name job name
+   * @param dataTableName input table
+   * @param dataFamilyName input family
+   * @param outputPath output, like table:family:column
+   * @param mrClass action class
+   * @return the job
+   * @throws IOException
+   */
   public MrJob newJob(String name, String dataTableName, String dataFamilyName, String outputPath, Class<? extends MrAction> mrClass)
       throws IOException {
-    Scan scan = new Scan();
-    scan.addFamily(Bytes.toBytes(dataFamilyName));
+    MrAction action = newAction(mrClass);
+    Scan scan = new ScanPlanner(config).plan(dataTableName, dataFamilyName, action.columnsRead(), action.isCellLevel());
     return newJob(name, dataTableName, scan, outputPath, mrClass);
   }
 
@@ -187,6 +571,51 @@ public class Framework {
     return new SimpleJob(job);
   }
 
+  /**
+   * Builds a job that only scans the cells written since its last successful run, and merges the results
+   * into its output (see MrAction.merge). The time it has processed data up to is kept per job name and input table
+   * in HighWaterMark.TABLE, and moved forward only after the job succeeds.
+   * The first run scans the whole family and overwrites the output.
+   * Note that a row that was changed is seen again, with its new cells only; this fits data that is
+   * only added to, like logs or events.
+   * <p/>
+   * Merging is at least once, not exactly once: a time window whose output was written, but whose mark was not
+   * moved, is merged again the next time. That happens if a reduce attempt fails after it wrote some rows and is
+   * retried, if the job fails between the mapreduce and the mark, or if a group is resumed without a checkpoint
+   * of the mapreduce. For sums and counts, this means counting twice; so after such a failure, either rebuild
+   * the output with a full run (remove the mark), or resume the group from a checkpoint, which only moves the mark.
+   * Speculative reduces are turned off, since they would merge the same window twice on every run.
+   *
+   * @param name job name; also the key of its mark, so keep it stable between runs
+   * @param dataTableName input table
+   * @param dataFamilyName input family
+   * @param outputPath output, like table:family:column
+   * @param mrClass action class
+   * @return a job that runs the mapreduce and then moves the mark
+   * @throws IOException
+   * @throws IllegalArgumentException if the action cannot merge its results, see MrAction.isMergeable()
+   */
+  public MrJob newIncrementalJob(String name, String dataTableName, String dataFamilyName, String outputPath, Class<? extends MrAction> mrClass)
+      throws IOException {
+    MrAction action = newAction(mrClass);
+    if (!action.isMergeable()) {
+      throw new IllegalArgumentException(mrClass.getName() + " cannot merge its results, so it cannot run incrementally");
+    }
+    createTable(HighWaterMark.TABLE, HighWaterMark.FAMILY);
+    HighWaterMark marks = new HighWaterMark(config);
+    long from = marks.get(name, dataTableName);
+    long until = clock.now();
+    Scan scan = new ScanPlanner(config).plan(dataTableName, dataFamilyName, action.columnsRead(), action.isCellLevel());
+    scan.setTimeRange(from, until);
+    Job job = buildJob(name, mrClass);
+    job.getConfiguration().setBoolean(MERGE_OUTPUT, from > 0);
+    job.getConfiguration().setBoolean(SPECULATIVE_REDUCE, false);
+    mapJob(dataTableName, scan, job);
+    initOutput(job, HBaseOutputFormat.class, outputPath);
+    SimpleJob run = new SimpleJob(job);
+    return new SequentialJob(run, new MarkJob(name + " (mark)", marks, name, dataTableName, until));
+  }
+
   public MrJob newJobNoReduce(String name, String dataTableName, Scan scan, String outputPath, Class<? extends MrAction> mrClass)
       throws IOException {
     Job job = buildJob(name, mrClass);
@@ -201,6 +630,44 @@ public class Framework {
     return new SimpleJob(noReduction(job));
   }
 
+  /**
+   * Builds a job that, instead of writing to the output table through region servers, writes HFiles
+   * partitioned by the output table's regions, and then loads them into the table.
+   * RowActions in this mode must write (row key, Put) pairs from map; deletes cannot be bulk loaded,
+   * so actions that may write them are rejected. A retry writes HFiles into a new folder, see HFileJob.
+   *
+   * @param name job name
+   * @param dataTableName input table
+   * @param scan input scan
+   * @param outputPath output, like table:family:column
+   * @param hfilePath a (not yet existing) folder for the HFiles
+   * @param mrClass action class
+   * @return a job that runs the mapreduce and then loads its output
+   * @throws IOException
+   * @throws IllegalArgumentException if the action may write Deletes, see RowAction.writesDeletes()
+   */
+  public MrJob newBulkLoadJob(String name, String dataTableName, Scan scan, String outputPath, String hfilePath, Class<? extends MrAction> mrClass)
+      throws IOException {
+    MrAction action = newAction(mrClass);
+    if (action instanceof RowAction && ((RowAction) action).writesDeletes()) {
+      throw new IllegalArgumentException(mrClass.getName() + " may write Deletes, which cannot be bulk loaded");
+    }
+    Job job = buildJob(name, mrClass);
+    mapJob(dataTableName, scan, job);
+    initOutput(job, HFileOutputFormat.class, outputPath);
+    String tableName = job.getConfiguration().get(TableOutputFormat.OUTPUT_TABLE);
+    boolean putsFromMap = RowAction.class.isAssignableFrom(mrClass);
+    if (putsFromMap) {
+      job.setMapOutputValueClass(Put.class);
+    }
+    HFileOutputFormat.configureIncrementalLoad(job, new HTable(job.getConfiguration(), tableName));
+    if (!putsFromMap) {
+      job.setReducerClass(BulkLoadReducer.class);
+    }
+    HFileJob hfiles = new HFileJob(job, hfilePath);
+    return new SequentialJob(hfiles, new BulkLoadJob(name + " (load)", job.getConfiguration(), hfiles, tableName));
+  }
+
   private Job noReduction(Job job) {
     ((JobConf) job.getConfiguration()).setNumReduceTasks(0);
     return job;
@@ -216,7 +683,7 @@ public class Framework {
     Configuration c = job.getConfiguration();
     c.set(OUTPUT_COLUMN, resultNames[1]);
     c.set(TableOutputFormat.OUTPUT_TABLE, resultNames[0]);
-    job.setOutputFormatClass(HBaseOutputFormat.class);
+    job.setOutputFormatClass(outputFormatClass);
     return job;
   }
 
@@ -225,6 +692,7 @@ public class Framework {
     TableMapReduceUtil.initTableMapperJob(dataTableName, scan,
         DelegatingMapper.class, ImmutableBytesWritable.class,
         ImmutableBytesWritable.class, job);
+    job.getConfiguration().set(ScanPlanner.SCAN_PLAN, ScanPlanner.describe(scan));
     job.setOutputFormatClass(NoOutput.class);
     return job;
   }
@@ -233,10 +701,81 @@ public class Framework {
     return new ImmutableBytesWritable(string.getBytes());
   }
 
+  /**
+   * Wraps a ByteArray into an ImmutableBytesWritable; no copying if the ByteArray is backed by an array
+   *
+   * @param bytes the bytes
+   * @return a writable view of the bytes
+   */
+  static ImmutableBytesWritable newIbw(ByteArray bytes) {
+    return bytes.hasArray() ?
+        new ImmutableBytesWritable(bytes.array(), bytes.arrayOffset(), bytes.size()) :
+        new ImmutableBytesWritable(bytes.getBytes());
+  }
+
   static String asString(ImmutableBytesWritable row) {
     return new String(row.copyBytes());
   }
 
+  static String asString(ByteArray bytes) {
+    return bytes == null || bytes.isNull() ? null :
+           bytes.hasArray() ? new String(bytes.array(), bytes.arrayOffset(), bytes.size()) :
+           new String(bytes.getBytes());
+  }
+
+  /**
+   * A view of writable's bytes, no copying
+   *
+   * @param ibw the writable
+   * @return a ByteArray over the same bytes
+   */
+  static ByteArray asByteArray(ImmutableBytesWritable ibw) {
+    return new ByteArray(ibw.get(), ibw.getOffset(), ibw.getLength());
+  }
+
+  /**
+   * Parses a column spec, "family:qualifier" or just "qualifier"
+   *
+   * @param spec column spec
+   * @param defaultFamily family to use if the spec has none
+   * @return family and qualifier
+   */
+  static byte[][] column(ByteArray spec, byte[] defaultFamily) {
+    int colon = spec.indexOf((byte) ':');
+    return colon < 0 ?
+        new byte[][] {defaultFamily, bytesOf(spec)} :
+        new byte[][] {bytesOf(spec.slice(0, colon)), bytesOf(spec.slice(colon + 1, spec.size()))};
+  }
+
+  static ByteArray copyOf(ByteArray bytes) {
+    return new ByteArray(bytes.getBytes());
+  }
+
+  static ByteArray asByteArray(String string) {
+    return string == null ? null : new ByteArray(string.getBytes());
+  }
+
+  /**
+   * Bytes of a writable as a plain array; copies only if the writable is a part of a bigger array
+   *
+   * @param ibw the writable
+   * @return an array with exactly the writable's bytes
+   */
+  static byte[] bytesOf(ImmutableBytesWritable ibw) {
+    return ibw.getOffset() == 0 && ibw.getLength() == ibw.get().length ? ibw.get() : ibw.copyBytes();
+  }
+
+  /**
+   * Bytes of a ByteArray as a plain array; copies only if the ByteArray is not the whole underlying array
+   *
+   * @param bytes the ByteArray
+   * @return an array with exactly these bytes
+   */
+  static byte[] bytesOf(ByteArray bytes) {
+    return bytes.hasArray() && bytes.arrayOffset() == 0 && bytes.size() == bytes.array().length ?
+        bytes.array() : bytes.getBytes();
+  }
+
   static final Function<ImmutableBytesWritable, String> BYTES_TO_STRING = new Function<ImmutableBytesWritable, String>() {
 
     public String apply(ImmutableBytesWritable ibw) {
@@ -245,6 +784,38 @@ public class Framework {
 
   };
 
+  static final Function<ImmutableBytesWritable, ByteArray> IBW_TO_BYTEARRAY = new Function<ImmutableBytesWritable, ByteArray>() {
+
+    public ByteArray apply(ImmutableBytesWritable ibw) {
+      return asByteArray(ibw);
+    }
+
+  };
+
+  static final Function<ByteArray, ImmutableBytesWritable> BYTEARRAY_TO_IBW = new Function<ByteArray, ImmutableBytesWritable>() {
+
+    public ImmutableBytesWritable apply(ByteArray bytes) {
+      return newIbw(bytes);
+    }
+
+  };
+
+  static final Function<ByteArray, String> BYTEARRAY_TO_STRING = new Function<ByteArray, String>() {
+
+    public String apply(ByteArray bytes) {
+      return asString(bytes);
+    }
+
+  };
+
+  static final Function<String, ByteArray> STRING_TO_BYTEARRAY = new Function<String, ByteArray>() {
+
+    public ByteArray apply(String string) {
+      return asByteArray(string);
+    }
+
+  };
+
   private String findMyJar() {
     ClassLoader loader = getClass().getClassLoader();
     String class_file = getClass().getName().replaceAll("\\.", "/")
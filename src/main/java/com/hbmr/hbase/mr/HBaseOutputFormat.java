@@ -1,19 +1,75 @@
 package com.hbmr.hbase.mr;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.mapreduce.TableOutputFormat;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hbmr.common.Clock;
+import com.hbmr.common.RealClock;
 
 /**
- * An hbase-specific version of hadoop mapreduce output format
+ * An hbase-specific version of hadoop mapreduce output format.
+ * Puts are collected into batches and sent with one call per batch; a batch is flushed when it
+ * reaches the configured number of puts, the configured size, or the configured age.
+ * Age is checked on writes: a batch that got old is flushed with the next put, or by the next delete, or on close;
+ * a task that stops writing for a while keeps its batch until then.
  *
  * @author Vlad Patryshev
  */
 public class HBaseOutputFormat extends TableOutputFormat<ImmutableBytesWritable> {
+  static final Logger log = LoggerFactory.getLogger(HBaseOutputFormat.class);
+  /**
+   * Client write buffer, bytes; a batch is flushed when it gets this big
+   */
+  public static final String WRITE_BUFFER = "mr.framework.output.write.buffer";
+  public static final long DEFAULT_WRITE_BUFFER = 8 * 1024 * 1024;
+  /**
+   * Max number of puts in a batch
+   */
+  public static final String BATCH_SIZE = "mr.framework.output.batch.size";
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+  /**
+   * Max time (millis) a put can wait in a batch; checked on the next write, there is no timer
+   */
+  public static final String FLUSH_INTERVAL = "mr.framework.output.flush.interval";
+  public static final long DEFAULT_FLUSH_INTERVAL = 10000;
+
+  /**
+   * What the tasks wrote to the output table. Hadoop gives record writers no counters, so these are
+   * counted by the tasks themselves, where they write; see count(). FLUSHES counts batches sent to the table.
+   */
+  public enum Counters {
+    PUTS,
+    BYTES,
+    DELETES,
+    FLUSHES
+  }
+
+  /**
+   * Record writers open in this process, by task, so that count() can tell how many batches a task has started
+   */
+  private static final ConcurrentMap<TaskAttemptID, BatchingRecordWriter> writers =
+      new ConcurrentHashMap<TaskAttemptID, BatchingRecordWriter>();
+
   private Configuration conf;
 
   @Override
@@ -24,6 +80,128 @@ public class HBaseOutputFormat extends TableOutputFormat<ImmutableBytesWritable>
 
   @Override
   public void checkOutputSpecs(JobContext context) throws IOException, InterruptedException {
-    new HTable(conf, conf.get(OUTPUT_TABLE));
+    new HTable(conf, conf.get(OUTPUT_TABLE)).close();
+  }
+
+  @Override
+  public RecordWriter<ImmutableBytesWritable, Writable> getRecordWriter(TaskAttemptContext context) throws IOException, InterruptedException {
+    HTable table = new HTable(conf, conf.get(OUTPUT_TABLE));
+    table.setAutoFlush(false);
+    long writeBuffer = conf.getLong(WRITE_BUFFER, DEFAULT_WRITE_BUFFER);
+    table.setWriteBufferSize(writeBuffer);
+    return new BatchingRecordWriter(context.getTaskAttemptID(), table, new RealClock(),
+        writeBuffer, conf.getInt(BATCH_SIZE, DEFAULT_BATCH_SIZE), conf.getLong(FLUSH_INTERVAL, DEFAULT_FLUSH_INTERVAL));
+  }
+
+  /**
+   * Counts a Put or a Delete that a task has written to this output format.
+   * Every batch the task's writer has started since is counted as a flush: each one is sent exactly once,
+   * when it is full or old, before a delete, or on close, which comes too late for the task to count.
+   *
+   * @param context the task's context
+   * @param value what was written
+   */
+  public static void count(TaskInputOutputContext<?, ?, ?, ?> context, Writable value) {
+    if (value instanceof Put) {
+      increment(context, Counters.PUTS, 1);
+      increment(context, Counters.BYTES, ((Put) value).heapSize());
+    } else if (value instanceof Delete) {
+      increment(context, Counters.DELETES, 1);
+    }
+    BatchingRecordWriter writer = writers.get(context.getTaskAttemptID());
+    if (writer != null) {
+      long batches = writer.batchesStarted();
+      if (batches > 0) increment(context, Counters.FLUSHES, batches);
+    }
+  }
+
+  private static void increment(TaskInputOutputContext<?, ?, ?, ?> context, Counters counter, long value) {
+    Counter c = context.getCounter(counter);
+    if (c != null) c.increment(value);
+  }
+
+  /**
+   * Writes puts in batches. Deletes are not batched, but they flush the pending puts first,
+   * so that the order of operations is preserved.
+   * The totals and the largest batch are logged on close.
+   */
+  static class BatchingRecordWriter extends RecordWriter<ImmutableBytesWritable, Writable> {
+    private final TaskAttemptID task;
+    private final HTableInterface table;
+    private final Clock clock;
+    private final long maxBytes;
+    private final int maxPuts;
+    private final long maxAge;
+    private List<Put> batch;
+    private long batchBytes;
+    private long batchStarted;
+    private long puts;
+    private long deletes;
+    private long flushes;
+    private long batches;
+    private long batchesCounted;
+    private int largestBatch;
+
+    BatchingRecordWriter(TaskAttemptID task, HTableInterface table, Clock clock, long maxBytes, int maxPuts, long maxAge) {
+      this.task = task;
+      this.table = table;
+      this.clock = clock;
+      this.maxBytes = maxBytes;
+      this.maxPuts = maxPuts;
+      this.maxAge = maxAge;
+      this.batch = new ArrayList<Put>(maxPuts);
+      writers.put(task, this);
+    }
+
+    @Override
+    public void write(ImmutableBytesWritable key, Writable value) throws IOException {
+      if (value instanceof Put) {
+        Put put = new Put((Put) value); // hadoop may reuse the value
+        if (batch.isEmpty()) {
+          batchStarted = clock.now();
+          batches++;
+        }
+        batch.add(put);
+        batchBytes += put.heapSize();
+        puts++;
+        if (batch.size() >= maxPuts || batchBytes >= maxBytes || clock.now() - batchStarted >= maxAge) {
+          flush();
+        }
+      } else if (value instanceof Delete) {
+        flush();
+        table.delete(new Delete((Delete) value));
+        deletes++;
+      } else {
+        throw new IOException("Pass a Delete or a Put");
+      }
+    }
+
+    /**
+     * @return number of batches started since the last call
+     */
+    long batchesStarted() {
+      long started = batches - batchesCounted;
+      batchesCounted = batches;
+      return started;
+    }
+
+    void flush() throws IOException {
+      if (batch.isEmpty()) return;
+      table.put(batch);
+      table.flushCommits();
+      flushes++;
+      largestBatch = Math.max(largestBatch, batch.size());
+      batch = new ArrayList<Put>(maxPuts);
+      batchBytes = 0;
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) throws IOException {
+      writers.remove(task, this);
+      flush();
+      table.close();
+      log.info(String.format("Wrote %d puts in %d batches (largest %d), %d deletes",
+          puts, flushes, largestBatch, deletes));
+    }
   }
-}
\ No newline at end of file
+}
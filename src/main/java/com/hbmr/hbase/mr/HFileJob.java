@@ -0,0 +1,40 @@
+package com.hbmr.hbase.mr;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * The mapreduce of Framework.newBulkLoadJob, writing HFiles; the first step, before BulkLoadJob.
+ * A failed attempt may leave its folder behind, and hadoop does not write into an existing folder,
+ * so every retry writes into a new one, next to the first: path.1, path.2, and so on.
+ * The folders of failed attempts are left for whoever wants to see what went wrong.
+ *
+ * @author Vlad Patryshev
+ */
+class HFileJob extends SimpleJob {
+  private final String hfilePath;
+  private int attempt;
+
+  HFileJob(Job job, String hfilePath) {
+    super(job);
+    this.hfilePath = hfilePath;
+    FileOutputFormat.setOutputPath(job, new Path(hfilePath));
+  }
+
+  /**
+   * @return the folder of the current attempt
+   */
+  String hfilePath() {
+    return attempt == 0 ? hfilePath : hfilePath + "." + attempt;
+  }
+
+  @Override
+  protected void rebuild() throws IOException {
+    super.rebuild();
+    attempt++;
+    FileOutputFormat.setOutputPath(job(), new Path(hfilePath()));
+  }
+}
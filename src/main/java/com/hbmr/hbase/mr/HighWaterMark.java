@@ -0,0 +1,76 @@
+package com.hbmr.hbase.mr;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Per (job name, input table) timestamps up to which incremental jobs have processed their input;
+ * kept in a metadata table, one row per pair.
+ *
+ * @author Vlad Patryshev
+ */
+public class HighWaterMark {
+  public static final String TABLE = "Hbmr..meta";
+  public static final String FAMILY = "mark";
+  private static final byte[] FAMILY_BYTES = Bytes.toBytes(FAMILY);
+  private static final byte[] TIME = Bytes.toBytes("time");
+
+  private final Configuration config;
+
+  public HighWaterMark(Configuration config) {
+    this.config = config;
+  }
+
+  private static byte[] row(String jobName, String tableName) {
+    return Bytes.toBytes(jobName + "\t" + tableName);
+  }
+
+  /**
+   * @param jobName job name
+   * @param tableName input table
+   * @return the mark, or 0 if the job never ran incrementally on the table
+   * @throws IOException
+   */
+  public long get(String jobName, String tableName) throws IOException {
+    HTable table = new HTable(config, TABLE);
+    try {
+      Result result = table.get(new Get(row(jobName, tableName)).addColumn(FAMILY_BYTES, TIME));
+      byte[] value = result.getValue(FAMILY_BYTES, TIME);
+      return value == null ? 0 : Bytes.toLong(value);
+    } finally {
+      table.close();
+    }
+  }
+
+  public void set(String jobName, String tableName, long time) throws IOException {
+    HTable table = new HTable(config, TABLE);
+    try {
+      table.put(new Put(row(jobName, tableName)).add(FAMILY_BYTES, TIME, Bytes.toBytes(time)));
+    } finally {
+      table.close();
+    }
+  }
+
+  /**
+   * Forgets the mark, so that the next run of the job processes the whole table and overwrites its output
+   *
+   * @param jobName job name
+   * @param tableName input table
+   * @throws IOException
+   */
+  public void reset(String jobName, String tableName) throws IOException {
+    HTable table = new HTable(config, TABLE);
+    try {
+      table.delete(new Delete(row(jobName, tableName)));
+    } finally {
+      table.close();
+    }
+  }
+}
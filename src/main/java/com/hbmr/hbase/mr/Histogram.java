@@ -0,0 +1,86 @@
+package com.hbmr.hbase.mr;
+
+/**
+ * Distribution of non-negative values in power of two buckets: bucket b holds values in [2^(b-1), 2^b),
+ * bucket 0 holds zeros. Adding a value is a couple of instructions, so it can be done on hot paths.
+ * Not thread safe.
+ *
+ * @author Vlad Patryshev
+ */
+public class Histogram {
+  public static final int BUCKETS = 64;
+  private final long[] counts = new long[BUCKETS];
+  private long count;
+  private long sum;
+
+  static int bucket(long value) {
+    return value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value);
+  }
+
+  /**
+   * @param bucket bucket number
+   * @return the largest value that goes into the bucket
+   */
+  public static long upperBound(int bucket) {
+    return bucket == 0 ? 0 : bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+  }
+
+  public void add(long value) {
+    counts[bucket(value)]++;
+    count++;
+    sum += value;
+  }
+
+  void add(int bucket, long n) {
+    counts[bucket] += n;
+    count += n;
+  }
+
+  void addSum(long sum) {
+    this.sum += sum;
+  }
+
+  public Histogram plus(Histogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] += other.counts[i];
+    }
+    count += other.count;
+    sum += other.sum;
+    return this;
+  }
+
+  public long count() {
+    return count;
+  }
+
+  public long count(int bucket) {
+    return counts[bucket];
+  }
+
+  public long sum() {
+    return sum;
+  }
+
+  public double mean() {
+    return count == 0 ? 0.0 : (double) sum / count;
+  }
+
+  /**
+   * @param fraction between 0 and 1, e.g. 0.99
+   * @return upper bound of the bucket where the given fraction of values is reached; within a factor of two
+   */
+  public long percentile(double fraction) {
+    long threshold = (long) Math.ceil(fraction * count);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= threshold && seen > 0) return upperBound(i);
+    }
+    return 0;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("n: %d, mean: %.1f, p50: <%d, p99: <%d", count, mean(), percentile(0.5), percentile(0.99));
+  }
+}
@@ -0,0 +1,101 @@
+package com.hbmr.hbase.mr;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.hbmr.common.collect.ByteArray;
+import com.hbmr.common.collect.ReMap;
+
+/**
+ * Running times of jobs that completed successfully, by job name.
+ * Used to guess how long a job will take the next time; the guess is a moving average that favours recent runs.
+ * The times are kept in memory, shared by all the groups of the process; with a store (see persistTo()),
+ * they are also written there, and read from there for jobs this process has not run yet, so a driver that
+ * runs once a night still knows last night's times. Groups with checkpoints use their checkpoint store,
+ * unless a store is already set; the times are kept under KEY_PREFIX, apart from the checkpoints.
+ *
+ * @author Vlad Patryshev
+ */
+public class JobHistory {
+  /**
+   * Where the times go in the store; checkpoint keys of groups must not start with it
+   */
+  public static final String KEY_PREFIX = "jobhistory/";
+  private static final double RECENT_WEIGHT = 0.5;
+  private static final Long UNKNOWN = -1L;
+  private static final ConcurrentMap<String, Long> expected = new ConcurrentHashMap<String, Long>();
+  private static volatile ReMap<String, ByteArray> store;
+
+  private JobHistory() {
+  }
+
+  /**
+   * Makes the history persistent
+   *
+   * @param store where to keep the times, e.g. a Folder
+   */
+  public static synchronized void persistTo(ReMap<String, ByteArray> store) {
+    JobHistory.store = store;
+    expected.clear();
+  }
+
+  /**
+   * Sets the store, if there is none yet
+   *
+   * @param store where to keep the times
+   */
+  static synchronized void persistToIfNone(ReMap<String, ByteArray> store) {
+    if (JobHistory.store == null) persistTo(store);
+  }
+
+  /**
+   * Records a run
+   *
+   * @param name job name
+   * @param millis how long it took
+   */
+  public static void record(String name, long millis) {
+    if (name == null || millis < 0) return;
+    long old;
+    long now;
+    do {
+      old = expected(name); // puts an entry in the map, so replace() has something to replace
+      now = old < 0 ? millis : Math.round(RECENT_WEIGHT * millis + (1 - RECENT_WEIGHT) * old);
+    } while (!expected.replace(name, old, now));
+    ReMap<String, ByteArray> store = JobHistory.store;
+    if (store != null) store.put(KEY_PREFIX + name, new ByteArray(now));
+  }
+
+  /**
+   * Expected running time
+   *
+   * @param name job name
+   * @return expected time in millis, or -1 if the job was never seen
+   */
+  public static long expected(String name) {
+    if (name == null) return -1;
+    Long millis = expected.get(name);
+    if (millis == null) {
+      ReMap<String, ByteArray> store = JobHistory.store;
+      ByteArray stored = store == null ? null : store.get(KEY_PREFIX + name);
+      millis = stored == null ? UNKNOWN : stored.getLong(0);
+      Long raced = expected.putIfAbsent(name, millis);
+      if (raced != null) millis = raced;
+    }
+    return millis;
+  }
+
+  public static void forget(String name) {
+    expected.remove(name);
+    ReMap<String, ByteArray> store = JobHistory.store;
+    if (store != null) store.remove(KEY_PREFIX + name);
+  }
+
+  /**
+   * Forgets everything, and the store too (not what is in it); for tests
+   */
+  static synchronized void reset() {
+    store = null;
+    expected.clear();
+  }
+}
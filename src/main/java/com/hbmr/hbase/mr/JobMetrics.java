@@ -0,0 +1,157 @@
+package com.hbmr.hbase.mr;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.mapreduce.Counters;
+
+/**
+ * A snapshot of how much a job has done and how fast: what hadoop counters say, plus time and progress.
+ * Group metrics are the sums of their jobs' counts, see plus().
+ *
+ * @author Vlad Patryshev
+ */
+public class JobMetrics {
+  // hadoop's own groups; Task is not public, so its counters are looked up by name
+  private static final String TASK = "org.apache.hadoop.mapred.Task$Counter";
+  private static final String FILE_SYSTEM = "FileSystemCounters";
+
+  /**
+   * PUTS_WRITTEN, BATCHES_WRITTEN and the table part of BYTES_WRITTEN are counted by the tasks as they write,
+   * see HBaseOutputFormat.count()
+   */
+  public enum Measure {
+    ROWS_SCANNED,
+    BYTES_READ,
+    MAP_OUTPUT_RECORDS,
+    SHUFFLE_BYTES,
+    PUTS_WRITTEN,
+    BATCHES_WRITTEN,
+    BYTES_WRITTEN
+  }
+
+  private final long[] values = new long[Measure.values().length];
+  private final Map<String, Histogram> timings = new TreeMap<String, Histogram>();
+  private final long elapsed;
+  private final float progress;
+
+  /**
+   * @param elapsed millis the job has been running
+   * @param progress between 0 and 1
+   */
+  public JobMetrics(long elapsed, float progress) {
+    this.elapsed = elapsed;
+    this.progress = progress;
+  }
+
+  /**
+   * Metrics of a hadoop job
+   *
+   * @param counters the job's counters
+   * @param elapsed millis the job has been running
+   * @param progress between 0 and 1
+   * @return metrics
+   */
+  public static JobMetrics of(Counters counters, long elapsed, float progress) {
+    JobMetrics metrics = new JobMetrics(elapsed, progress);
+    metrics.timings.putAll(Sampler.read(counters));
+    return metrics
+        .set(Measure.ROWS_SCANNED, counters.findCounter(TASK, "MAP_INPUT_RECORDS").getValue())
+        .set(Measure.BYTES_READ, counters.findCounter(Framework.Counters.BYTES_SCANNED).getValue() +
+            counters.findCounter(FILE_SYSTEM, "HDFS_BYTES_READ").getValue())
+        .set(Measure.MAP_OUTPUT_RECORDS, counters.findCounter(TASK, "MAP_OUTPUT_RECORDS").getValue())
+        .set(Measure.SHUFFLE_BYTES, counters.findCounter(TASK, "REDUCE_SHUFFLE_BYTES").getValue())
+        .set(Measure.PUTS_WRITTEN, counters.findCounter(HBaseOutputFormat.Counters.PUTS).getValue())
+        .set(Measure.BATCHES_WRITTEN, counters.findCounter(HBaseOutputFormat.Counters.FLUSHES).getValue())
+        .set(Measure.BYTES_WRITTEN, counters.findCounter(HBaseOutputFormat.Counters.BYTES).getValue() +
+            counters.findCounter(FILE_SYSTEM, "HDFS_BYTES_WRITTEN").getValue());
+  }
+
+  JobMetrics set(Measure measure, long value) {
+    values[measure.ordinal()] = value;
+    return this;
+  }
+
+  public long get(Measure measure) {
+    return values[measure.ordinal()];
+  }
+
+  /**
+   * Adds up the counts; time and progress are the group's own
+   *
+   * @param other metrics of one more job in the group
+   * @return this
+   */
+  JobMetrics plus(JobMetrics other) {
+    for (int i = 0; i < values.length; i++) {
+      values[i] += other.values[i];
+    }
+    for (Map.Entry<String, Histogram> timing : other.timings.entrySet()) {
+      Histogram histogram = timings.get(timing.getKey());
+      if (histogram == null) {
+        histogram = new Histogram();
+        timings.put(timing.getKey(), histogram);
+      }
+      histogram.plus(timing.getValue());
+    }
+    return this;
+  }
+
+  /**
+   * Where the time goes in the mappers and reducers, sampled if Sampler.SAMPLE_RATE is set; percentiles of times are
+   * within a factor of a thousand, of values per key within a factor of 16, see Sampler
+   *
+   * @return nanosecond histograms by "map.PHASE" or "reduce.PHASE", e.g. "map.ACTION"; "reduce.VALUES_PER_KEY" counts values
+   */
+  public Map<String, Histogram> timings() {
+    return Collections.unmodifiableMap(timings);
+  }
+
+  public long elapsed() {
+    return elapsed;
+  }
+
+  public float progress() {
+    return progress;
+  }
+
+  public double rowsPerSecond() {
+    return perSecond(get(Measure.ROWS_SCANNED));
+  }
+
+  public double bytesReadPerSecond() {
+    return perSecond(get(Measure.BYTES_READ));
+  }
+
+  public double putsPerSecond() {
+    return perSecond(get(Measure.PUTS_WRITTEN));
+  }
+
+  public double bytesWrittenPerSecond() {
+    return perSecond(get(Measure.BYTES_WRITTEN));
+  }
+
+  private double perSecond(long count) {
+    return elapsed <= 0 ? 0.0 : count * 1000.0 / elapsed;
+  }
+
+  /**
+   * Time left, assuming the rest of the job goes as fast as it went so far
+   *
+   * @return millis, or -1 if there is no progress to judge by yet
+   */
+  public long eta() {
+    if (progress >= 1.0f) return 0;
+    if (progress <= 0.0f || elapsed <= 0) return -1;
+    return Math.round(elapsed * (1.0 - progress) / progress);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("time: %d, progress: %4.2f, eta: %d, rows: %d (%.1f/s), read: %d, map output: %d, shuffle: %d, puts: %d (%.1f/s) in %d batches, written: %d (%.1f/s)",
+        elapsed, progress, eta(), get(Measure.ROWS_SCANNED), rowsPerSecond(), get(Measure.BYTES_READ),
+        get(Measure.MAP_OUTPUT_RECORDS), get(Measure.SHUFFLE_BYTES), get(Measure.PUTS_WRITTEN), putsPerSecond(),
+        get(Measure.BATCHES_WRITTEN), get(Measure.BYTES_WRITTEN), bytesWrittenPerSecond());
+  }
+}
@@ -0,0 +1,281 @@
+package com.hbmr.hbase.mr;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Threads that jobs use for checking their state and for the few blocking steps they have (like loading HFiles).
+ * One monitor is shared by all the jobs in the process, so the number of threads does not grow with the number of jobs:
+ * jobs that wait for other jobs do it with completion listeners, and do not need threads at all.
+ * <p/>
+ * There are three pools. The pollers run the checks (see watch()); there are very few of them, and every job's
+ * polling and deadline depend on them, so a check must never block. The workers run the blocking steps
+ * (see run()); their queue is bounded, and work that does not fit is rejected, with an error in the log.
+ * The listeners run the groups' completion listeners (see executor()): a dropped listener would leave its
+ * group waiting forever, so their queue is not bounded, and they do not wait behind the blocking steps.
+ *
+ * @author Vlad Patryshev
+ */
+public class JobMonitor {
+  static final Logger log = LoggerFactory.getLogger(JobMonitor.class);
+  public static final int DEFAULT_POLLERS = 2;
+  public static final int DEFAULT_WORKERS = 4;
+  public static final int DEFAULT_LISTENERS = 2;
+  /**
+   * Max number of blocking steps waiting for a worker
+   */
+  public static final int DEFAULT_QUEUE = 10000;
+  private static final long IDLE_MILLIS = 60000;
+  /**
+   * A check that takes longer than this is reported; it holds up all the other checks
+   */
+  static final long SLOW_CHECK_MILLIS = 1000;
+  private static final ThreadLocal<Boolean> IN_CHECK = new ThreadLocal<Boolean>();
+
+  private static final JobMonitor SHARED = new JobMonitor(DEFAULT_POLLERS, DEFAULT_WORKERS);
+
+  private final ScheduledThreadPoolExecutor pollers;
+  private final ThreadPoolExecutor workers;
+  private final ThreadPoolExecutor listeners;
+  private final AtomicInteger watching = new AtomicInteger();
+  private final AtomicLong polls = new AtomicLong();
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicLong rejected = new AtomicLong();
+  private final Executor executor = new Executor() {
+    public void execute(Runnable task) {
+      pending.incrementAndGet();
+      listeners.execute(tracked(task));
+    }
+  };
+
+  /**
+   * @param pollers number of threads checking job states
+   * @param workers max number of threads running blocking steps; idle ones go away
+   */
+  public JobMonitor(int pollers, int workers) {
+    this(pollers, workers, DEFAULT_QUEUE);
+  }
+
+  /**
+   * @param pollers number of threads checking job states
+   * @param workers max number of threads running blocking steps; idle ones go away
+   * @param queueLimit max number of blocking steps waiting for a worker; more are rejected
+   */
+  public JobMonitor(int pollers, int workers, int queueLimit) {
+    this.pollers = new ScheduledThreadPoolExecutor(pollers,
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("hbmr-monitor-%d").build());
+    this.workers = new ThreadPoolExecutor(workers, workers, IDLE_MILLIS, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(queueLimit),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("hbmr-worker-%d").build(),
+        new RejectedExecutionHandler() {
+          public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            rejected.incrementAndGet();
+            log.error("Rejected " + task + ", too much work queued; " + JobMonitor.this);
+            throw new RejectedExecutionException("Job monitor queue is full: " + JobMonitor.this);
+          }
+        });
+    this.workers.allowCoreThreadTimeOut(true);
+    this.listeners = new ThreadPoolExecutor(DEFAULT_LISTENERS, DEFAULT_LISTENERS, IDLE_MILLIS, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("hbmr-listener-%d").build());
+    this.listeners.allowCoreThreadTimeOut(true);
+  }
+
+  public static JobMonitor shared() {
+    return SHARED;
+  }
+
+  /**
+   * Calls the check every interval until it returns true or throws.
+   * The check runs on a poller thread, which it shares with all the other checks, so it must be quick:
+   * no submitting jobs, no waiting for them, no starting other jobs; hand such work to run().
+   * Blocking calls of the framework fail in a check, see checkMayBlock(); slow checks are logged.
+   *
+   * @param check returns true when there is nothing more to watch
+   * @param intervalMillis time between checks
+   */
+  public void watch(final Callable<Boolean> check, final long intervalMillis) {
+    watching.incrementAndGet();
+    schedule(check, intervalMillis);
+  }
+
+  private void schedule(final Callable<Boolean> check, final long intervalMillis) {
+    pollers.schedule(new Runnable() {
+      public void run() {
+        boolean done = true;
+        long start = System.nanoTime();
+        IN_CHECK.set(Boolean.TRUE);
+        try {
+          polls.incrementAndGet();
+          done = check.call();
+        } catch (Throwable t) {
+          log.error("Check failed, stopped watching " + check, t);
+        } finally {
+          IN_CHECK.remove();
+        }
+        long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (took > SLOW_CHECK_MILLIS) {
+          log.warn("Check of " + check + " took " + took + "ms, holding up the other checks; it must not block");
+        }
+        if (done) {
+          watching.decrementAndGet();
+        } else {
+          schedule(check, intervalMillis);
+        }
+      }
+    }, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return true if the current thread is running a check (see watch()), where nothing may block
+   */
+  public static boolean inCheck() {
+    return IN_CHECK.get() != null;
+  }
+
+  /**
+   * Called by the framework before it blocks
+   *
+   * @param what what is about to block, for the message
+   * @throws IllegalStateException if called from a check
+   */
+  public static void checkMayBlock(String what) {
+    if (inCheck()) {
+      throw new IllegalStateException(what + " blocks, so it cannot be done in a monitor check; use JobMonitor.run()");
+    }
+  }
+
+  /**
+   * Runs a blocking step of a job; errors are logged, besides going to the future
+   *
+   * @param task the step
+   * @return its future
+   * @throws RejectedExecutionException if the queue is full
+   */
+  public Future<?> run(Runnable task) {
+    pending.incrementAndGet();
+    try {
+      return workers.submit(tracked(task));
+    } catch (RejectedExecutionException e) {
+      pending.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /**
+   * @return the task, counted in pendingWork() until it is done, and logging its errors
+   */
+  private Runnable tracked(final Runnable task) {
+    return new Runnable() {
+      public void run() {
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          log.error("Failed: " + task, e);
+          throw e;
+        } catch (Error e) {
+          log.error("Failed: " + task, e);
+          throw e;
+        } finally {
+          pending.decrementAndGet();
+        }
+      }
+
+      @Override
+      public String toString() {
+        return task.toString();
+      }
+    };
+  }
+
+  /**
+   * Completion listeners go here, not to run(): they are never rejected, and do not wait behind blocking steps.
+   * A listener may still block for a short while (e.g. submitting the next job), but it holds up the other
+   * listeners, so long work goes to run().
+   *
+   * @return an executor that runs tasks on the listener threads
+   */
+  public Executor executor() {
+    return executor;
+  }
+
+  /**
+   * @return number of things being watched
+   */
+  public int watching() {
+    return watching.get();
+  }
+
+  /**
+   * @return number of checks done so far
+   */
+  public long polls() {
+    return polls.get();
+  }
+
+  public int pollerThreads() {
+    return pollers.getPoolSize();
+  }
+
+  public int activePollers() {
+    return pollers.getActiveCount();
+  }
+
+  public int workerThreads() {
+    return workers.getPoolSize();
+  }
+
+  public int activeWorkers() {
+    return workers.getActiveCount();
+  }
+
+  public int largestWorkerThreads() {
+    return workers.getLargestPoolSize();
+  }
+
+  /**
+   * @return number of blocking steps waiting for a worker
+   */
+  public int queuedWork() {
+    return workers.getQueue().size();
+  }
+
+  public long completedWork() {
+    return workers.getCompletedTaskCount();
+  }
+
+  /**
+   * @return number of blocking steps and listeners submitted and not finished yet
+   */
+  public int pendingWork() {
+    return pending.get();
+  }
+
+  /**
+   * @return number of blocking steps rejected since the queue was full
+   */
+  public long rejectedWork() {
+    return rejected.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("monitor: watching %d, polls %d, pollers %d (active %d); workers %d (active %d, largest %d), queued %d, done %d, rejected %d",
+        watching(), polls(), pollerThreads(), activePollers(),
+        workerThreads(), activeWorkers(), largestWorkerThreads(), queuedWork(), completedWork(), rejectedWork());
+  }
+}
@@ -0,0 +1,70 @@
+package com.hbmr.hbase.mr;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.hadoop.conf.Configuration;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs mapreduce actions in this process, over in-memory tables: no zookeeper, no job submission.
+ * Map and reduce phases are split into key ranges that run in a shared pool of worker threads.
+ * Row actions write their Puts and Deletes to the output table.
+ *
+ * @author Vlad Patryshev
+ */
+public class LocalEngine {
+  public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+  private final Configuration config;
+  private final int parallelism;
+  private final ExecutorService workers;
+  private final ExecutorService drivers;
+
+  public LocalEngine(Configuration config) {
+    this(config, DEFAULT_PARALLELISM);
+  }
+
+  public LocalEngine(Configuration config, int parallelism) {
+    this.config = config;
+    this.parallelism = parallelism;
+    this.workers = Executors.newFixedThreadPool(parallelism,
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("hbmr-local-worker-%d").build());
+    this.drivers = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("hbmr-local-driver-%d").build());
+  }
+
+  /**
+   * Builds a local job
+   *
+   * @param name job name
+   * @param input input table
+   * @param dataFamilyName input family
+   * @param output output table
+   * @param outputColumn output column, like family:column
+   * @param mrClass action class
+   * @return the job, not started yet
+   * @throws IOException if the action cannot be instantiated
+   */
+  public MrJob newJob(String name, LocalTable input, String dataFamilyName, LocalTable output, String outputColumn, Class<? extends MrAction> mrClass)
+      throws IOException {
+    if (outputColumn.split(":").length != 2) {
+      throw new IllegalArgumentException("Output column should be like family:column, but I got \"" + outputColumn + "\"");
+    }
+    Configuration jobConfig = new Configuration(config);
+    jobConfig.set(Framework.ACTION_CLASS_KEY, mrClass.getName());
+    jobConfig.set(Framework.OUTPUT_COLUMN, outputColumn);
+    try {
+      return new LocalJob(name, jobConfig, Framework.mrAction(jobConfig), input, dataFamilyName, output, parallelism, workers, drivers);
+    } catch (Exception e) {
+      throw new IOException("Failed to instantiate MrAction " + mrClass.getName(), e);
+    }
+  }
+
+  public void shutdown() {
+    workers.shutdown();
+    drivers.shutdown();
+  }
+}
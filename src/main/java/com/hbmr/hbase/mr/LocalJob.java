@@ -0,0 +1,336 @@
+package com.hbmr.hbase.mr;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.util.Progress;
+
+import com.google.common.collect.Lists;
+import com.hbmr.common.collect.ByteArray;
+
+/**
+ * Mapreduce job that runs in this process, over in-memory tables; see LocalEngine.
+ * Tasks run the same mapper, combiner and reducer as hadoop does, with contexts of their own.
+ *
+ * @author Vlad Patryshev
+ */
+class LocalJob extends CommonJob {
+  private static final float MAP_WEIGHT = 0.5f;
+  private static final float REDUCE_WEIGHT = 0.5f;
+
+  private final String name;
+  private final Configuration config;
+  private final MrAction action;
+  private final LocalTable input;
+  private final byte[] family;
+  private final LocalTable output;
+  private final int parallelism;
+  private final ExecutorService workers;
+  private final ExecutorService drivers;
+  private final AtomicLong rowsMapped = new AtomicLong();
+  private final AtomicLong keysReduced = new AtomicLong();
+  private volatile long rowsToMap = -1;
+  private volatile long keysToReduce = -1;
+  private volatile Counters counters = new Counters();
+  private volatile Throwable failure;
+
+  LocalJob(String name, Configuration config, MrAction action,
+           LocalTable input, String dataFamilyName, LocalTable output,
+           int parallelism, ExecutorService workers, ExecutorService drivers) {
+    this.name = name;
+    this.config = config;
+    this.action = action;
+    this.input = input;
+    this.family = Bytes.toBytes(dataFamilyName);
+    this.output = output;
+    this.parallelism = parallelism;
+    this.workers = workers;
+    this.drivers = drivers;
+  }
+
+  public synchronized void start() {
+    if (!isStarted()) {
+      markStart();
+      isStarted = true;
+      drivers.submit(new Runnable() {
+        public void run() {
+          try {
+            execute();
+          } catch (Throwable t) {
+            log.error("Failed " + LocalJob.this, t);
+            failure = t;
+            isSuccessful = false;
+          } finally {
+            isComplete = true;
+            markStop();
+          }
+        }
+      });
+    }
+  }
+
+  @Override
+  protected void rebuild() {
+    rowsMapped.set(0);
+    keysReduced.set(0);
+    rowsToMap = -1;
+    keysToReduce = -1;
+    counters = new Counters();
+    failure = null;
+  }
+
+  private int rangeSize(int n) {
+    return Math.max(1, (n + 4 * parallelism - 1) / (4 * parallelism));
+  }
+
+  private void execute() throws Exception {
+    List<byte[]> rows = input.rowKeys();
+    rowsToMap = rows.size();
+    List<Future<Map<ByteArray, List<ByteArray>>>> mapped = new ArrayList<Future<Map<ByteArray, List<ByteArray>>>>();
+    for (List<byte[]> range : Lists.partition(rows, rangeSize(rows.size()))) {
+      mapped.add(workers.submit(mapTask(range)));
+    }
+
+    Map<ByteArray, List<ByteArray>> shuffled = new HashMap<ByteArray, List<ByteArray>>();
+    for (Future<Map<ByteArray, List<ByteArray>>> part : mapped) {
+      for (Map.Entry<ByteArray, List<ByteArray>> entry : part.get().entrySet()) {
+        List<ByteArray> values = shuffled.get(entry.getKey());
+        if (values == null) {
+          shuffled.put(entry.getKey(), entry.getValue());
+        } else {
+          values.addAll(entry.getValue());
+        }
+      }
+    }
+
+    List<ByteArray> keys = new ArrayList<ByteArray>(shuffled.keySet());
+    keysToReduce = keys.size();
+    List<Future<Void>> reduced = new ArrayList<Future<Void>>();
+    for (List<ByteArray> range : Lists.partition(keys, rangeSize(keys.size()))) {
+      reduced.add(workers.submit(reduceTask(range, shuffled)));
+    }
+    for (Future<Void> part : reduced) {
+      part.get();
+    }
+  }
+
+  /**
+   * Runs hadoop's mapper, Framework.DelegatingMapper, over a range of rows, and then the combiner if there is one
+   */
+  private Callable<Map<ByteArray, List<ByteArray>>> mapTask(final List<byte[]> rows) {
+    return new Callable<Map<ByteArray, List<ByteArray>>>() {
+      public Map<ByteArray, List<ByteArray>> call() throws Exception {
+        TaskReporter reporter = new TaskReporter();
+        TaskOutput<Writable, Writable> mapped = new TaskOutput<Writable, Writable>();
+        Framework.DelegatingMapper mapper = new Framework.DelegatingMapper();
+        Mapper<ImmutableBytesWritable, Result, Writable, Writable>.Context context =
+            mapper.new Context(config, new TaskAttemptID(), null, mapped, null, reporter, null);
+        try {
+          mapper.setup(context);
+          for (byte[] row : rows) {
+            if (isCancelled) throw new CancellationException(getName() + " cancelled");
+            mapper.map(new ImmutableBytesWritable(row), input.row(row, family), context);
+            rowsMapped.incrementAndGet();
+          }
+          mapper.cleanup(context);
+          return action.isAssociative() ? combine(mapped.shuffled, reporter) : mapped.shuffled;
+        } finally {
+          counters.incrAllCounters(reporter.counters);
+        }
+      }
+    };
+  }
+
+  private Map<ByteArray, List<ByteArray>> combine(Map<ByteArray, List<ByteArray>> mapped, TaskReporter reporter)
+      throws IOException, InterruptedException {
+    TaskOutput<ImmutableBytesWritable, ImmutableBytesWritable> combined = new TaskOutput<ImmutableBytesWritable, ImmutableBytesWritable>();
+    Framework.DelegatingCombiner combiner = new Framework.DelegatingCombiner();
+    Framework.DelegatingCombiner.Context context = combiner.new Context(config, new TaskAttemptID(), NO_INPUT,
+        new Counter() {}, new Counter() {}, combined, null, reporter, null,
+        ImmutableBytesWritable.class, ImmutableBytesWritable.class);
+    combiner.setup(context);
+    for (Map.Entry<ByteArray, List<ByteArray>> entry : mapped.entrySet()) {
+      combiner.reduce(Framework.newIbw(entry.getKey()), Lists.transform(entry.getValue(), Framework.BYTEARRAY_TO_IBW), context);
+    }
+    return combined.shuffled;
+  }
+
+  /**
+   * Runs hadoop's reducer, Framework.DelegatingReducer, over a range of keys; it writes Puts to the output table.
+   * The values are ImmutableBytesWritables, not Results, same as what the reducer gets in hadoop.
+   */
+  private Callable<Void> reduceTask(final List<ByteArray> keys, final Map<ByteArray, List<ByteArray>> shuffled) {
+    return new Callable<Void>() {
+      @SuppressWarnings("unchecked")
+      public Void call() throws Exception {
+        TaskReporter reporter = new TaskReporter();
+        Framework.DelegatingReducer reducer = new Framework.DelegatingReducer();
+        Framework.DelegatingReducer.Context context = reducer.new Context(config, new TaskAttemptID(), NO_INPUT,
+            new Counter() {}, new Counter() {}, new TaskOutput<Writable, Writable>(), null, reporter, null,
+            ImmutableBytesWritable.class, Result.class);
+        try {
+          reducer.setup(context);
+          for (ByteArray key : keys) {
+            if (isCancelled) throw new CancellationException(getName() + " cancelled");
+            Iterable<?> values = Lists.transform(shuffled.get(key), Framework.BYTEARRAY_TO_IBW);
+            reducer.reduce(Framework.newIbw(key), (Iterable<Result>) values, context);
+            keysReduced.incrementAndGet();
+          }
+          reducer.cleanup(context);
+          return null;
+        } finally {
+          counters.incrAllCounters(reporter.counters);
+        }
+      }
+    };
+  }
+
+  /**
+   * Where the tasks write: map output goes to the task's part of the shuffle, Puts and Deletes to the output table
+   */
+  private class TaskOutput<K extends Writable, V extends Writable> extends RecordWriter<K, V> {
+    final Map<ByteArray, List<ByteArray>> shuffled = new HashMap<ByteArray, List<ByteArray>>();
+
+    @Override
+    public void write(K key, V value) throws IOException {
+      if (value instanceof Put) {
+        output.put((Put) value);
+      } else if (value instanceof Delete) {
+        output.delete((Delete) value);
+      } else if (key instanceof ImmutableBytesWritable && value instanceof ImmutableBytesWritable) {
+        // hadoop's buffers may be reused, so keep copies
+        ByteArray k = Framework.copyOf(Framework.asByteArray((ImmutableBytesWritable) key));
+        List<ByteArray> values = shuffled.get(k);
+        if (values == null) {
+          values = new ArrayList<ByteArray>();
+          shuffled.put(k, values);
+        }
+        values.add(Framework.copyOf(Framework.asByteArray((ImmutableBytesWritable) value)));
+      } else {
+        throw new IOException("Pass a Put, a Delete, or an ImmutableBytesWritable key and value");
+      }
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) {
+    }
+  }
+
+  /**
+   * Gives a task counters of its own; they are added to the job's when the task is done
+   */
+  private static class TaskReporter extends StatusReporter {
+    final Counters counters = new Counters();
+
+    public Counter getCounter(Enum<?> name) {
+      return counters.findCounter(name);
+    }
+
+    public Counter getCounter(String group, String name) {
+      return counters.findCounter(group, name);
+    }
+
+    public void progress() {
+    }
+
+    public void setStatus(String status) {
+    }
+  }
+
+  /**
+   * Reducers here are called directly, they do not read their input from hadoop's iterator
+   */
+  private static final RawKeyValueIterator NO_INPUT = new RawKeyValueIterator() {
+    public DataInputBuffer getKey() {
+      return null;
+    }
+
+    public DataInputBuffer getValue() {
+      return null;
+    }
+
+    public boolean next() {
+      return false;
+    }
+
+    public void close() {
+    }
+
+    public Progress getProgress() {
+      return new Progress();
+    }
+  };
+
+  public boolean waitForCompletion() throws InterruptedException {
+    start();
+    return awaitCompletion();
+  }
+
+  private static float fraction(long done, long total) {
+    return total < 0 ? 0.0f : total == 0 ? 1.0f : (float) done / total;
+  }
+
+  private float mapProgress() {
+    return fraction(rowsMapped.get(), rowsToMap);
+  }
+
+  private float reduceProgress() {
+    return fraction(keysReduced.get(), keysToReduce);
+  }
+
+  public float progress() {
+    lastProgress = !isStarted ? 0.0f : isComplete ? 1.0f :
+        MAP_WEIGHT * mapProgress() + REDUCE_WEIGHT * reduceProgress();
+    return lastProgress;
+  }
+
+  /**
+   * Tasks count what they write and sample their timings in counters, as they do in hadoop; rows scanned are counted here
+   */
+  @Override
+  public JobMetrics metrics() {
+    synchronized (counters) {
+      return JobMetrics.of(counters, timeRunning(), progress())
+          .set(JobMetrics.Measure.ROWS_SCANNED, rowsMapped.get());
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String details() {
+    String head = String.format("\"%s\" time: %d ", name, timeRunning());
+    return isComplete() ? head + String.format("Complete, success: %b", isSuccessful()) :
+           isStarted() ? head + String.format("local, progress: map: %4.2f, reduce: %4.2f", mapProgress(), reduceProgress()) :
+           String.format("Name: %s, NOT STARTED YET", name);
+  }
+
+  public String explainError() {
+    return isComplete() && !isSuccessful() ? (getName() + whyFailed() + (failure == null ? "" : ": " + failure)) : "";
+  }
+}
@@ -0,0 +1,129 @@
+package com.hbmr.hbase.mr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * An in-memory table: rows sorted the way hbase sorts them, one version per cell.
+ * Good for running actions locally, on small data and in tests.
+ *
+ * @author Vlad Patryshev
+ */
+public class LocalTable {
+  private final NavigableMap<byte[], NavigableMap<byte[], NavigableMap<byte[], byte[]>>> rows =
+      new TreeMap<byte[], NavigableMap<byte[], NavigableMap<byte[], byte[]>>>(Bytes.BYTES_COMPARATOR);
+
+  public synchronized LocalTable put(byte[] row, byte[] family, byte[] qualifier, byte[] value) {
+    NavigableMap<byte[], NavigableMap<byte[], byte[]>> families = rows.get(row);
+    if (families == null) {
+      families = new TreeMap<byte[], NavigableMap<byte[], byte[]>>(Bytes.BYTES_COMPARATOR);
+      rows.put(row, families);
+    }
+    NavigableMap<byte[], byte[]> cells = families.get(family);
+    if (cells == null) {
+      cells = new TreeMap<byte[], byte[]>(Bytes.BYTES_COMPARATOR);
+      families.put(family, cells);
+    }
+    cells.put(qualifier, value);
+    return this;
+  }
+
+  public LocalTable put(String row, String family, String qualifier, String value) {
+    return put(Bytes.toBytes(row), Bytes.toBytes(family), Bytes.toBytes(qualifier), Bytes.toBytes(value));
+  }
+
+  public synchronized LocalTable put(Put put) {
+    for (Map.Entry<byte[], List<KeyValue>> family : put.getFamilyMap().entrySet()) {
+      for (KeyValue kv : family.getValue()) {
+        put(put.getRow(), family.getKey(), kv.getQualifier(), kv.getValue());
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Deletes a row, families or cells; there is one version per cell, so timestamps are ignored
+   *
+   * @param delete what to delete
+   * @return this
+   */
+  public synchronized LocalTable delete(Delete delete) {
+    NavigableMap<byte[], NavigableMap<byte[], byte[]>> families = rows.get(delete.getRow());
+    if (families == null) return this;
+    if (delete.isEmpty()) {
+      rows.remove(delete.getRow());
+      return this;
+    }
+    for (Map.Entry<byte[], List<KeyValue>> family : delete.getFamilyMap().entrySet()) {
+      NavigableMap<byte[], byte[]> cells = families.get(family.getKey());
+      for (KeyValue kv : family.getValue()) {
+        if (kv.isDeleteFamily()) {
+          cells = null;
+        } else if (cells != null) {
+          cells.remove(kv.getQualifier());
+        }
+      }
+      if (cells == null || cells.isEmpty()) families.remove(family.getKey());
+    }
+    if (families.isEmpty()) rows.remove(delete.getRow());
+    return this;
+  }
+
+  public synchronized byte[] get(byte[] row, byte[] family, byte[] qualifier) {
+    NavigableMap<byte[], NavigableMap<byte[], byte[]>> families = rows.get(row);
+    NavigableMap<byte[], byte[]> cells = families == null ? null : families.get(family);
+    return cells == null ? null : cells.get(qualifier);
+  }
+
+  public String get(String row, String family, String qualifier) {
+    byte[] value = get(Bytes.toBytes(row), Bytes.toBytes(family), Bytes.toBytes(qualifier));
+    return value == null ? null : Bytes.toString(value);
+  }
+
+  /**
+   * A row, as a scan would return it
+   *
+   * @param row row key
+   * @param family the only family to include, or null for all of them
+   * @return the row; empty if there is no such row
+   */
+  public synchronized Result row(byte[] row, byte[] family) {
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    NavigableMap<byte[], NavigableMap<byte[], byte[]>> families = rows.get(row);
+    if (families != null) {
+      for (Map.Entry<byte[], NavigableMap<byte[], byte[]>> f : families.entrySet()) {
+        if (family == null || Bytes.equals(family, f.getKey())) {
+          for (Map.Entry<byte[], byte[]> cell : f.getValue().entrySet()) {
+            kvs.add(new KeyValue(row, f.getKey(), cell.getKey(), cell.getValue()));
+          }
+        }
+      }
+    }
+    return new Result(kvs);
+  }
+
+  /**
+   * @return a snapshot of row keys, sorted
+   */
+  public synchronized List<byte[]> rowKeys() {
+    return new ArrayList<byte[]>(rows.keySet());
+  }
+
+  public synchronized int size() {
+    return rows.size();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "LocalTable(" + rows.size() + " rows)";
+  }
+}
@@ -0,0 +1,64 @@
+package com.hbmr.hbase.mr;
+
+/**
+ * Moves the high-water mark of an incremental job forward, once the job has succeeded;
+ * the last step of Framework.newIncrementalJob. The sequence stops if the job fails, so the mark stays
+ * where it was, and the next run processes the same rows again.
+ *
+ * @author Vlad Patryshev
+ */
+public class MarkJob extends CommonJob {
+  private final String name;
+  private final HighWaterMark marks;
+  private final String jobName;
+  private final String tableName;
+  private final long time;
+
+  MarkJob(String name, HighWaterMark marks, String jobName, String tableName, long time) {
+    this.name = name;
+    this.marks = marks;
+    this.jobName = jobName;
+    this.tableName = tableName;
+    this.time = time;
+  }
+
+  public synchronized void start() {
+    if (!isStarted()) {
+      markStart();
+      isStarted = true;
+      monitor.run(new Runnable() {
+        public void run() {
+          try {
+            marks.set(jobName, tableName, time);
+          } catch (Exception e) {
+            log.error("Could not set the mark of " + jobName + " on " + tableName, e);
+            isSuccessful = false;
+          }
+          isComplete = true;
+          markStop();
+        }
+      });
+    }
+  }
+
+  public boolean waitForCompletion() throws InterruptedException {
+    start();
+    return awaitCompletion();
+  }
+
+  public float progress() {
+    return isComplete ? 1.0f : 0.0f;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String details() {
+    return String.format("\"%s\" time: %d, %s on %s -> %d: %s", name, timeRunning(), jobName, tableName, time, status());
+  }
+
+  public String explainError() {
+    return isComplete() && !isSuccessful() ? (getName() + whyFailed()) : "";
+  }
+}
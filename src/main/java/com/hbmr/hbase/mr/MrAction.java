@@ -1,7 +1,10 @@
 package com.hbmr.hbase.mr;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.apache.hadoop.hbase.client.Result;
@@ -11,6 +14,9 @@ import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.conf.Configuration;
 
+import com.google.common.collect.Iterables;
+import com.hbmr.common.collect.ByteArray;
+
 /**
  * A simplified interface for mapreduce
  *
@@ -18,6 +24,27 @@ import org.apache.hadoop.conf.Configuration;
  */
 public abstract class MrAction {
 
+  /**
+   * Columns this action reads, each either "qualifier" or "family:qualifier";
+   * when the framework plans the scan, it fetches only these. Empty (the default) means the whole family.
+   *
+   * @return column names
+   */
+  public Collection<String> columnsRead() {
+    return Collections.emptySet();
+  }
+
+  /**
+   * Tells whether map works on cells rather than rows, that is, whether a row can be passed to map in parts
+   * without changing the result. Then the framework may scan very wide rows in batches (see ScanPlanner);
+   * otherwise every map call gets a whole row.
+   *
+   * @return true if map gives the same results for a row split into parts
+   */
+  public boolean isCellLevel() {
+    return false;
+  }
+
   /**
    * Default, empty, implementation of map
    *
@@ -54,4 +81,149 @@ public abstract class MrAction {
   public String reduce(Iterable<String> valuesToReduce, Configuration config) {
     return null;
   }
+
+  /**
+   * Reduces values into several columns of the output row, all written with one Put.
+   * A column is named either "family:qualifier" or just "qualifier", in which case the family
+   * of the job's output column is used.
+   * Default is reduce() into the job's output column.
+   *
+   * @param valuesToReduce values
+   * @param config configuration
+   * @return column to value map
+   */
+  public Map<String, String> reduceColumns(Iterable<String> valuesToReduce, Configuration config) {
+    String reduced = reduce(valuesToReduce, config);
+    return reduced == null ? Collections.<String, String>emptyMap() :
+        Collections.singletonMap(config.get(Framework.OUTPUT_COLUMN), reduced);
+  }
+
+  /**
+   * Tells whether reduce is associative and commutative, that is, whether it can be applied to
+   * partial results (as a combiner) without changing the final result. Sums, counts, min/max are like that.
+   *
+   * @return true if reduce can also be used as a combiner
+   */
+  public boolean isAssociative() {
+    return false;
+  }
+
+  /**
+   * Tells whether merge can fold a delta into a value already in the output table; incremental jobs
+   * need it. Default merge reduces the two, so the default is yes.
+   *
+   * @return true if the action can be run incrementally
+   */
+  public boolean isMergeable() {
+    return true;
+  }
+
+  /**
+   * Pre-aggregates map output before the shuffle; only called if isAssociative().
+   * Default is reduce itself; override if partial results should look different from the final one.
+   *
+   * @param valuesToCombine values produced by one map task for one key
+   * @param config configuration
+   * @return combined value, or null if nothing should be passed on
+   */
+  public String combine(Iterable<String> valuesToCombine, Configuration config) {
+    return reduce(valuesToCombine, config);
+  }
+
+  /**
+   * Merges a value computed by an incremental run (over the rows changed since the last run)
+   * into the value that is already in the output table.
+   * Default is reduce of the two, which is right if reduce takes the same kind of values it produces (a monoid).
+   *
+   * @param existing value in the output table
+   * @param delta value reduced from the changed rows
+   * @param config configuration
+   * @return merged value, or null if nothing should be written
+   */
+  public String merge(String existing, String delta, Configuration config) {
+    return reduce(Arrays.asList(existing, delta), config);
+  }
+
+  /**
+   * Byte-level map, the one delegating mapper actually calls.
+   * This default converts the row key to a string, calls the string map and converts the results back.
+   * {@see BytesMrAction} overrides it and never builds strings.
+   *
+   * @param rowkey row key, a view of mapper's input, no copying
+   * @param inputData the row
+   * @param context mapper context
+   * @return the key-value map, as bytes
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  Map<ByteArray, ByteArray> mapBytes(ByteArray rowkey, Result inputData, Mapper<ImmutableBytesWritable, Result, Writable, Writable>.Context context) throws IOException, InterruptedException {
+    return toBytes(map(Framework.asString(rowkey), inputData, context));
+  }
+
+  /**
+   * Byte-level map without hadoop context
+   *
+   * @param rowkey row key
+   * @param inputData the row
+   * @param config configuration
+   * @return the key-value map, as bytes
+   */
+  Map<ByteArray, ByteArray> mapBytes(ByteArray rowkey, Result inputData, Configuration config) {
+    return toBytes(map(Framework.asString(rowkey), inputData, config));
+  }
+
+  /**
+   * Byte-level reduce, the one delegating reducer actually calls.
+   * This default decodes the values and delegates to the string reduce.
+   *
+   * @param valuesToReduce values, as bytes
+   * @param config configuration
+   * @return reduced value, or null if nothing should be written
+   */
+  ByteArray reduceBytes(Iterable<ByteArray> valuesToReduce, Configuration config) {
+    return Framework.asByteArray(reduce(Iterables.transform(valuesToReduce, Framework.BYTEARRAY_TO_STRING), config));
+  }
+
+  /**
+   * Byte-level multicolumn reduce, the one delegating reducer actually calls.
+   *
+   * @param valuesToReduce values, as bytes
+   * @param config configuration
+   * @return column to value map, as bytes
+   */
+  Map<ByteArray, ByteArray> reduceColumnsBytes(Iterable<ByteArray> valuesToReduce, Configuration config) {
+    return toBytes(reduceColumns(Iterables.transform(valuesToReduce, Framework.BYTEARRAY_TO_STRING), config));
+  }
+
+  /**
+   * Byte-level combine, the one delegating combiner actually calls.
+   *
+   * @param valuesToCombine values, as bytes
+   * @param config configuration
+   * @return combined value, or null
+   */
+  ByteArray combineBytes(Iterable<ByteArray> valuesToCombine, Configuration config) {
+    return Framework.asByteArray(combine(Iterables.transform(valuesToCombine, Framework.BYTEARRAY_TO_STRING), config));
+  }
+
+  /**
+   * Byte-level merge of incremental results, the one delegating reducer actually calls.
+   *
+   * @param existing value in the output table
+   * @param delta value reduced from the changed rows
+   * @param config configuration
+   * @return merged value, or null
+   */
+  ByteArray mergeBytes(ByteArray existing, ByteArray delta, Configuration config) {
+    return Framework.asByteArray(merge(Framework.asString(existing), Framework.asString(delta), config));
+  }
+
+  private static Map<ByteArray, ByteArray> toBytes(Map<String, String> map) {
+    if (map.isEmpty()) return Collections.emptyMap();
+    Map<ByteArray, ByteArray> result = new LinkedHashMap<ByteArray, ByteArray>();
+    for (Map.Entry<String, String> entry : map.entrySet()) {
+      result.put(Framework.asByteArray(entry.getKey()), Framework.asByteArray(entry.getValue()));
+    }
+    return result;
+  }
 }
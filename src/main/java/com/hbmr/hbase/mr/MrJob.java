@@ -1,5 +1,9 @@
 package com.hbmr.hbase.mr;
 
+import java.io.IOException;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * Mapreduce job spec
  *
@@ -33,8 +37,51 @@ public interface MrJob {
 
   boolean waitForCompletion() throws InterruptedException;
 
+  /**
+   * Stops the job: a running hadoop job is killed, the jobs of a group that have not started yet will not start.
+   * The job completes as failed; it can be reset and run again. Does nothing to a job that is complete.
+   */
+  void cancel();
+
+  /**
+   * Makes the job cancel itself if it is not complete by the given time
+   *
+   * @param time by the job's clock, in millis
+   */
+  void setDeadline(long time);
+
+  /**
+   * Makes the job cancel itself if it is not complete in the given time after it starts
+   *
+   * @param millis time limit
+   */
+  void setTimeout(long millis);
+
+  /**
+   * A future that is set to the final status as soon as the job completes; listeners are run right then,
+   * no polling needed
+   *
+   * @return completion future
+   */
+  ListenableFuture<Status> onComplete();
+
+  /**
+   * Gets a job that failed ready to run again; in a group, the jobs that succeeded are not redone.
+   * Does nothing to a job that has not started or has succeeded.
+   *
+   * @throws IOException if the job could not be rebuilt
+   */
+  void reset() throws IOException;
+
   float progress();
 
+  /**
+   * What the job has done so far, how fast, and how long it may still take
+   *
+   * @return a snapshot of the job's metrics
+   */
+  JobMetrics metrics();
+
   String details();
 
   Status status();
@@ -1,13 +1,17 @@
 package com.hbmr.hbase.mr;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Date;
+import java.util.LinkedList;
 import java.util.List;
 
-import com.google.common.collect.Lists;
+import com.google.common.base.Preconditions;
 
 /**
- * Parallel mapreduce job
+ * Parallel mapreduce job. At most forkFactor jobs run at once, the rest wait in a queue;
+ * the next one is started as soon as a running one completes.
+ * By default, the group fails fast: once a job fails, the running ones are cancelled and the queued ones dropped.
  *
  * @author Vlad Patryshev
  */
@@ -16,7 +20,9 @@ public class ParallelJob extends BulkJob implements MrJob {
 // TODO(vlad): pass conf and extract conf
   public final static int FORK_FACTOR = 3;
   private int forkFactor = FORK_FACTOR;
-  private List<MrJob> batch;
+  private final List<MrJob> pending = new LinkedList<MrJob>();
+  private int running;
+  private volatile boolean failFast = true;
 
   ParallelJob(MrJob... jobs) {
     super(jobs);
@@ -26,33 +32,173 @@ public class ParallelJob extends BulkJob implements MrJob {
     super(jobs);
   }
 
-  public synchronized void start() {
-    if (!isStarted()) {
+  public ParallelJob(int forkFactor, Collection<MrJob> jobs) {
+    super(jobs);
+    setForkFactor(forkFactor);
+  }
+
+  public synchronized int getForkFactor() {
+    return forkFactor;
+  }
+
+  /**
+   * Sets the max number of jobs running at once; can be changed while the group runs.
+   * Jobs that are already running are not stopped if the number goes down.
+   *
+   * @param forkFactor max number of jobs running at once, positive
+   */
+  public void setForkFactor(int forkFactor) {
+    Preconditions.checkArgument(forkFactor > 0, "Fork factor must be positive, got %s", forkFactor);
+    synchronized (this) {
+      this.forkFactor = forkFactor;
+    }
+    admit();
+  }
+
+  /**
+   * @param failFast if true, the first failed job cancels the group; if false, the other jobs go on
+   */
+  public void setFailFast(boolean failFast) {
+    this.failFast = failFast;
+  }
+
+  public boolean isFailFast() {
+    return failFast;
+  }
+
+  public void start() {
+    List<MrJob> toRun = new ArrayList<MrJob>();
+    for (MrJob job : jobs) {
+      if (!isDone(job)) toRun.add(job);
+    }
+    synchronized (this) {
+      if (isStarted()) return;
       markStart();
+      pending.addAll(toRun);
       isStarted = true;
-      for (MrJob job : jobs) {
-        job.start();
+    }
+    admit();
+    isComplete();
+  }
+
+  /**
+   * Adds a job to the group, even if the group is already running
+   *
+   * @param job the job
+   */
+  protected void enqueue(MrJob job) {
+    synchronized (this) {
+      if (isComplete) throw new IllegalStateException("too late to add jobs to a completed group");
+      jobs.add(job);
+      if (isStarted) pending.add(job);
+    }
+    admit();
+  }
+
+  /**
+   * The group is complete when nothing is running and nothing is queued;
+   * the counts are kept under the group's lock, so that a job cannot sneak in while the group completes
+   */
+  @Override
+  public boolean isComplete() {
+    if (!isComplete) {
+      synchronized (this) {
+        if (!isStarted || running > 0 || !pending.isEmpty()) return false;
+        isComplete = true;
       }
     }
+    markStop();
+    return isComplete;
   }
 
-  public boolean waitForCompletion() throws InterruptedException {
-    System.out.println(this + ": waiting now");
-    start();
-    boolean waiting = true;
-    while (waiting) {
-      waiting = false;
-      for (MrJob j : jobs) {
-        if (!j.isStarted()) j.start();
-        if (!j.isComplete()) {
-          waiting = true;
-          System.out.println("waiting for \"" + j.getName() + "\"");
-        }
+  /**
+   * Starts queued jobs while there are free slots. Jobs are started outside of the lock,
+   * since a job may complete, and call back, right in start().
+   */
+  private void admit() {
+    List<MrJob> toStart = new ArrayList<MrJob>();
+    synchronized (this) {
+      while (isStarted && !isCancelled && running < forkFactor && !pending.isEmpty()) {
+        MrJob job = nextToStart(pending);
+        if (job == null) break;
+        pending.remove(job);
+        running++;
+        toStart.add(job);
       }
-      sleep();
     }
-    isComplete = true;
-    return isSuccessful();
+    for (MrJob job : toStart) {
+      watch(job);
+      job.start();
+    }
+  }
+
+  /**
+   * Chooses which queued job to start next; called under the group's lock. The default is first come first served.
+   *
+   * @param queue jobs waiting to start, not empty
+   * @return one of the queued jobs, or null if none of them can start yet
+   */
+  protected MrJob nextToStart(List<MrJob> queue) {
+    return queue.get(0);
+  }
+
+  /**
+   * Takes a job out of the queue, for good; it will never be started
+   *
+   * @param job a queued job
+   * @return true if the job was in the queue
+   */
+  protected synchronized boolean drop(MrJob job) {
+    return pending.remove(job);
+  }
+
+  @Override
+  protected void childCompleted(MrJob job) {
+    synchronized (this) {
+      running--;
+    }
+    if (failFast && !isCancelled && !job.isSuccessful()) {
+      log.error(this + ": cancelling, since " + job.getName() + " failed");
+      cancel();
+    }
+    super.childCompleted(job);
+    admit();
+  }
+
+  @Override
+  protected void kill() {
+    synchronized (this) {
+      pending.clear();
+    }
+    super.kill();
+  }
+
+  @Override
+  protected void rebuild() throws IOException {
+    super.rebuild();
+    synchronized (this) {
+      pending.clear();
+      running = 0;
+    }
+  }
+
+  public synchronized int queued() {
+    return pending.size();
+  }
+
+  public synchronized int running() {
+    return running;
+  }
+
+  @Override
+  public String details() {
+    int queued, running, forkFactor;
+    synchronized (this) {
+      queued = pending.size();
+      running = this.running;
+      forkFactor = this.forkFactor;
+    }
+    return super.details() + String.format(", running: %d/%d, queued: %d", running, forkFactor, queued);
   }
 
   @Override
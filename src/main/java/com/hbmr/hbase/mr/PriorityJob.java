@@ -0,0 +1,248 @@
+package com.hbmr.hbase.mr;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A parallel group where each job has a priority and belongs to a pool; jobs can be added while the group runs.
+ * When a slot frees up, it goes to the queued job with the highest priority. A job's priority goes up by one
+ * for every aging period it has waited, so low priority jobs do not starve. Among jobs of the same priority,
+ * the slots are shared between the pools by weight (see setWeight()): the job goes to the pool with the fewest
+ * running jobs per unit of weight, so under contention a pool of weight 2 runs twice as many jobs as a pool
+ * of weight 1. Within a pool, the job with the smallest expected time (see JobHistory) goes first, so cheap jobs
+ * do not sit behind a long scan; after that, first come first served.
+ * Jobs in the queue are independent, so a failed job does not cancel the others (see setFailFast()).
+ * A job's ticket (its priority and pool) is kept until the job succeeds or is dropped, so that resume()
+ * can queue the failed ones again the way they were.
+ *
+ * @author Vlad Patryshev
+ */
+public class PriorityJob extends ParallelJob implements MrJob {
+  public static final long DEFAULT_AGING_PERIOD = 10 * 60 * 1000;
+  public static final int DEFAULT_PRIORITY = 0;
+  public static final String DEFAULT_POOL = "default";
+  public static final double DEFAULT_WEIGHT = 1.0;
+
+  private final long agingPeriod;
+  private final Map<MrJob, Ticket> tickets = new HashMap<MrJob, Ticket>();
+  private final Map<String, Pool> pools = new HashMap<String, Pool>();
+
+  private static class Ticket {
+    final int priority;
+    final Pool pool;
+    final long queuedAt;
+
+    Ticket(int priority, Pool pool, long queuedAt) {
+      this.priority = priority;
+      this.pool = pool;
+      this.queuedAt = queuedAt;
+    }
+  }
+
+  private static class Pool {
+    final String name;
+    double weight = DEFAULT_WEIGHT;
+    int running;
+
+    Pool(String name) {
+      this.name = name;
+    }
+
+    double load() {
+      return running / weight;
+    }
+  }
+
+  public PriorityJob() {
+    this(FORK_FACTOR, DEFAULT_AGING_PERIOD);
+  }
+
+  /**
+   * @param forkFactor max number of jobs running at once
+   * @param agingPeriod millis a job has to wait to get its priority raised by one
+   */
+  public PriorityJob(int forkFactor, long agingPeriod) {
+    Preconditions.checkArgument(agingPeriod > 0, "Aging period must be positive, got %s", agingPeriod);
+    this.agingPeriod = agingPeriod;
+    setForkFactor(forkFactor);
+    setFailFast(false);
+  }
+
+  public PriorityJob(int forkFactor, long agingPeriod, Collection<MrJob> jobs) {
+    this(forkFactor, agingPeriod);
+    for (MrJob job : jobs) {
+      add(job);
+    }
+  }
+
+  /**
+   * Sets the share of a pool; can be changed while the group runs, and takes effect as slots free up
+   *
+   * @param pool pool name
+   * @param weight share of the slots, relative to the other pools' weights
+   * @return this group
+   */
+  public PriorityJob setWeight(String pool, double weight) {
+    Preconditions.checkArgument(weight > 0, "Weight must be positive, got %s", weight);
+    synchronized (this) {
+      pool(pool).weight = weight;
+    }
+    return this;
+  }
+
+  private Pool pool(String name) {
+    Pool pool = pools.get(name);
+    if (pool == null) {
+      pool = new Pool(name);
+      pools.put(name, pool);
+    }
+    return pool;
+  }
+
+  /**
+   * Adds a job to the default pool with default priority
+   *
+   * @param job the job
+   */
+  @Override
+  public void add(MrJob job) {
+    add(job, DEFAULT_POOL, DEFAULT_PRIORITY);
+  }
+
+  /**
+   * Adds a job to the default pool
+   *
+   * @param job the job
+   * @param priority bigger goes first
+   */
+  public void add(MrJob job, int priority) {
+    add(job, DEFAULT_POOL, priority);
+  }
+
+  /**
+   * Adds a job; if the group is running, the job is queued right away
+   *
+   * @param job the job
+   * @param pool the pool that shares slots with the others by weight, see setWeight()
+   * @param priority bigger goes first, whatever the pool
+   */
+  public void add(MrJob job, String pool, int priority) {
+    Preconditions.checkNotNull(pool, "pool");
+    synchronized (this) {
+      tickets.put(job, new Ticket(priority, pool(pool), clock.now()));
+    }
+    enqueue(job);
+  }
+
+  @Override
+  protected synchronized boolean drop(MrJob job) {
+    tickets.remove(job);
+    return super.drop(job);
+  }
+
+  /**
+   * The job's pool gets its slot back; a job that succeeded is never queued again, so its ticket goes
+   */
+  @Override
+  protected void childCompleted(MrJob job) {
+    synchronized (this) {
+      Ticket ticket = tickets.get(job);
+      if (ticket != null && ticket.pool.running > 0) ticket.pool.running--;
+      if (job.isSuccessful()) tickets.remove(job);
+    }
+    super.childCompleted(job);
+  }
+
+  @Override
+  protected void rebuild() throws IOException {
+    super.rebuild();
+    synchronized (this) {
+      for (Pool pool : pools.values()) {
+        pool.running = 0;
+      }
+    }
+  }
+
+  /**
+   * @return number of jobs that have tickets: queued, running, or failed
+   */
+  synchronized int tickets() {
+    return tickets.size();
+  }
+
+  /**
+   * @return number of jobs of the pool running now
+   */
+  synchronized int running(String pool) {
+    Pool p = pools.get(pool);
+    return p == null ? 0 : p.running;
+  }
+
+  private long priority(Ticket ticket, long now) {
+    long waited = now - Math.max(ticket.queuedAt, startTime);
+    return ticket.priority + Math.max(0, waited) / agingPeriod;
+  }
+
+  /**
+   * The highest priority; then the least loaded pool; then the cheapest job. ParallelJob starts the job
+   * returned right away, so its pool's count of running jobs goes up here.
+   */
+  @Override
+  protected MrJob nextToStart(List<MrJob> queue) {
+    long now = clock.now();
+    long known = 0;
+    int count = 0;
+    for (MrJob job : queue) {
+      long expected = JobHistory.expected(job.getName());
+      if (expected >= 0) {
+        known += expected;
+        count++;
+      }
+    }
+    long unknown = count == 0 ? 1 : Math.max(1, known / count);
+
+    MrJob best = null;
+    Ticket bestTicket = null;
+    long bestPriority = 0;
+    double bestLoad = 0;
+    long bestCost = 0;
+    for (MrJob job : queue) {
+      Ticket ticket = tickets.get(job);
+      long priority = priority(ticket, now);
+      double load = ticket.pool.load();
+      long expected = JobHistory.expected(job.getName());
+      long cost = expected < 0 ? unknown : expected;
+      if (best == null || priority > bestPriority ||
+          (priority == bestPriority && (load < bestLoad || (load == bestLoad && cost < bestCost)))) {
+        best = job;
+        bestTicket = ticket;
+        bestPriority = priority;
+        bestLoad = load;
+        bestCost = cost;
+      }
+    }
+    if (bestTicket != null) bestTicket.pool.running++;
+    return best;
+  }
+
+  @Override
+  public String details() {
+    StringBuilder shares = new StringBuilder();
+    synchronized (this) {
+      for (Pool pool : pools.values()) {
+        shares.append(String.format(", %s: %d (weight %s)", pool.name, pool.running, pool.weight));
+      }
+    }
+    return super.details() + String.format(", aging: %dms", agingPeriod) + shares;
+  }
+
+  @Override
+  protected String kind() {
+    return "pri";
+  }
+}
@@ -19,6 +19,15 @@ public abstract class RowAction extends MrAction {
     return Collections.emptyMap();
   }
 
+  /**
+   * Tells whether process may write Deletes; they cannot be bulk loaded, see Framework.newBulkLoadJob
+   *
+   * @return true if the output may contain Deletes, not only Puts
+   */
+  public boolean writesDeletes() {
+    return false;
+  }
+
   public String reduce(Iterable<String> valuesToReduce, Configuration config) {
     return null;
   }
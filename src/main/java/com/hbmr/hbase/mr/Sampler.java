@@ -0,0 +1,181 @@
+package com.hbmr.hbase.mr;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+/**
+ * Where the time goes in a mapper or a reducer. Every n-th record is timed, phase by phase, into histograms
+ * of nanoseconds; the other records only cost a countdown. When the task ends, a summary of each histogram
+ * is published as hadoop counters, and it comes back in JobMetrics.timings(). Hadoop limits the number of
+ * counters of a job (120 by default), so the summary is small: the sum, and the counts in a few coarse buckets;
+ * for times, under a microsecond, a millisecond, a second, and the rest; for counts (VALUES_PER_KEY),
+ * 1, under 16, under 256, under 4096, and the rest. That is at most 6 counters per phase.
+ * Counters of the tasks are added up, so there is no max.
+ * <p/>
+ * Timing is off unless SAMPLE_RATE is set.
+ *
+ * @author Vlad Patryshev
+ */
+public class Sampler {
+  /**
+   * Every how many records one is timed, e.g. 64; 0 turns timing off
+   */
+  public static final String SAMPLE_RATE = "mr.framework.timing.sample";
+  public static final int DEFAULT_SAMPLE_RATE = 0;
+  static final String MAP = "hbmr.map.timing";
+  static final String REDUCE = "hbmr.reduce.timing";
+  private static final String SUM = "sum";
+  /**
+   * Histogram buckets that are published for times: each one gets the counts of the buckets below it,
+   * down to the previous one; they end at about a microsecond, a millisecond and a second
+   */
+  private static final int[] TIME_BUCKETS = {10, 20, 30, Histogram.BUCKETS - 1};
+  /**
+   * Same for counts: they end at 1, 15, 255 and 4095
+   */
+  private static final int[] COUNT_BUCKETS = {1, 4, 8, 12, Histogram.BUCKETS - 1};
+
+  enum Phase {
+    /**
+     * between the end of one map() and the start of the next one: mostly waiting for the scanner
+     */
+    SCAN_WAIT(TIME_BUCKETS),
+    ACTION(TIME_BUCKETS),
+    /**
+     * reading the output rows, for incremental jobs; timed per batch of rows whenever sampling is on, see HBaseOutputFormat.BATCH_SIZE
+     */
+    MERGE_READ(TIME_BUCKETS),
+    SERIALIZATION(TIME_BUCKETS),
+    WRITE(TIME_BUCKETS),
+    /**
+     * not a time: number of values a reducer gets for a key; counted for every key
+     */
+    VALUES_PER_KEY(COUNT_BUCKETS);
+
+    final int[] coarseBuckets;
+
+    Phase(int[] coarseBuckets) {
+      this.coarseBuckets = coarseBuckets;
+    }
+  }
+
+  private final String group;
+  private final int rate;
+  private int countdown;
+  private final Histogram[] histograms = new Histogram[Phase.values().length];
+
+  Sampler(String group, Configuration configuration) {
+    this(group, configuration.getInt(SAMPLE_RATE, DEFAULT_SAMPLE_RATE));
+  }
+
+  Sampler(String group, int rate) {
+    this.group = group;
+    this.rate = rate;
+    this.countdown = rate;
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new Histogram();
+    }
+  }
+
+  boolean isOn() {
+    return rate > 0;
+  }
+
+  /**
+   * Called once per record
+   *
+   * @return true if this record is to be timed
+   */
+  boolean sample() {
+    if (rate <= 0 || --countdown > 0) return false;
+    countdown = rate;
+    return true;
+  }
+
+  /**
+   * @return true if the next record is to be timed
+   */
+  boolean nextSampled() {
+    return rate > 0 && countdown == 1;
+  }
+
+  void record(Phase phase, long value) {
+    histograms[phase.ordinal()].add(value);
+  }
+
+  Histogram histogram(Phase phase) {
+    return histograms[phase.ordinal()];
+  }
+
+  void publish(TaskInputOutputContext<?, ?, ?, ?> context) {
+    for (Map.Entry<String, Long> entry : summary().entrySet()) {
+      increment(context, entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * @return counter values by name, "PHASE.sum" and "PHASE.bucket" for non-empty coarse buckets
+   */
+  Map<String, Long> summary() {
+    Map<String, Long> summary = new LinkedHashMap<String, Long>();
+    for (Phase phase : Phase.values()) {
+      Histogram histogram = histograms[phase.ordinal()];
+      if (histogram.count() == 0) continue;
+      int i = 0;
+      for (int coarse : phase.coarseBuckets) {
+        long count = 0;
+        for (; i <= coarse; i++) {
+          count += histogram.count(i);
+        }
+        if (count > 0) summary.put(phase + "." + coarse, count);
+      }
+      summary.put(phase + "." + SUM, histogram.sum());
+    }
+    return summary;
+  }
+
+  private void increment(TaskInputOutputContext<?, ?, ?, ?> context, String name, long value) {
+    Counter counter = context.getCounter(group, name);
+    if (counter != null) counter.increment(value);
+  }
+
+  /**
+   * Histograms of a job, as published by its tasks
+   *
+   * @param counters the job's counters
+   * @return histograms by "map.PHASE" and "reduce.PHASE"
+   */
+  static Map<String, Histogram> read(Counters counters) {
+    Map<String, Histogram> histograms = new HashMap<String, Histogram>();
+    read(counters.getGroup(MAP), "map.", histograms);
+    read(counters.getGroup(REDUCE), "reduce.", histograms);
+    return histograms;
+  }
+
+  private static void read(CounterGroup group, String prefix, Map<String, Histogram> histograms) {
+    for (Counter counter : group) {
+      String name = counter.getName();
+      int dot = name.lastIndexOf('.');
+      if (dot < 0) continue;
+      String key = prefix + name.substring(0, dot);
+      Histogram histogram = histograms.get(key);
+      if (histogram == null) {
+        histogram = new Histogram();
+        histograms.put(key, histogram);
+      }
+      String bucket = name.substring(dot + 1);
+      if (SUM.equals(bucket)) {
+        histogram.addSum(counter.getValue());
+      } else {
+        histogram.add(Integer.parseInt(bucket), counter.getValue());
+      }
+    }
+  }
+}
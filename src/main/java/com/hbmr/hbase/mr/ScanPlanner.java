@@ -0,0 +1,174 @@
+package com.hbmr.hbase.mr;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.TimeRange;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+
+/**
+ * Chooses scan settings for a full-table mapreduce scan.
+ * Samples a few rows to find out how big they are, then sets caching so that one scanner RPC
+ * brings about TARGET_BYTES, fetches only the columns the action declares it reads, and turns off block caching,
+ * since a full scan would only evict useful blocks.
+ * <p/>
+ * Very wide rows are scanned in batches only if the action says it works on cells (MrAction.isCellLevel()):
+ * with a batch, a row comes to map() in several parts, and an action that counts or looks at whole rows
+ * would compute something else.
+ *
+ * @author Vlad Patryshev
+ */
+public class ScanPlanner {
+  static final Logger log = LoggerFactory.getLogger(ScanPlanner.class);
+  /**
+   * Job configuration key where the chosen scan settings are recorded
+   */
+  public static final String SCAN_PLAN = "mr.framework.scan.plan";
+  static final int SAMPLE_ROWS = 100;
+  static final long TARGET_BYTES = 2 * 1024 * 1024;
+  static final int MAX_CACHING = 10000;
+  static final int DEFAULT_CACHING = 500;
+  static final int WIDE_ROW = 1000;
+
+  private final Configuration config;
+
+  public ScanPlanner(Configuration config) {
+    this.config = config;
+  }
+
+  /**
+   * Plans a full scan of a family
+   *
+   * @param tableName table to scan
+   * @param familyName family to scan
+   * @param columns columns to read, "qualifier" or "family:qualifier"; empty means the whole family
+   * @return a scan
+   * @throws IOException
+   */
+  public Scan plan(String tableName, String familyName, Collection<String> columns) throws IOException {
+    return plan(tableName, familyName, columns, false);
+  }
+
+  /**
+   * Plans a full scan of a family
+   *
+   * @param tableName table to scan
+   * @param familyName family to scan
+   * @param columns columns to read, "qualifier" or "family:qualifier"; empty means the whole family
+   * @param cellLevel true if rows may be split into batches of cells, see MrAction.isCellLevel()
+   * @return a scan
+   * @throws IOException
+   */
+  public Scan plan(String tableName, String familyName, Collection<String> columns, boolean cellLevel) throws IOException {
+    Scan scan = new Scan();
+    byte[] family = Bytes.toBytes(familyName);
+    if (columns.isEmpty()) {
+      scan.addFamily(family);
+    } else {
+      for (String column : columns) {
+        int colon = column.indexOf(':');
+        if (colon < 0) {
+          scan.addColumn(family, Bytes.toBytes(column));
+        } else {
+          scan.addColumn(Bytes.toBytes(column.substring(0, colon)), Bytes.toBytes(column.substring(colon + 1)));
+        }
+      }
+    }
+    scan.setCacheBlocks(false);
+    sample(tableName, scan, cellLevel);
+    return scan;
+  }
+
+  private void sample(String tableName, Scan scan, boolean cellLevel) {
+    long bytes = 0;
+    long cells = 0;
+    int rows = 0;
+    try {
+      Scan sampling = new Scan(scan);
+      sampling.setCaching(SAMPLE_ROWS);
+      HTable table = new HTable(config, tableName);
+      ResultScanner scanner = table.getScanner(sampling);
+      try {
+        for (Result row = scanner.next(); row != null && rows < SAMPLE_ROWS; row = scanner.next()) {
+          rows++;
+          for (KeyValue kv : row.raw()) {
+            cells++;
+            bytes += kv.getLength();
+          }
+        }
+      } finally {
+        scanner.close();
+        table.close();
+      }
+    } catch (IOException e) {
+      log.warn("Could not sample " + tableName + ", using default scan settings", e);
+      scan.setCaching(DEFAULT_CACHING);
+      return;
+    }
+    size(scan, rows, cells, bytes, cellLevel);
+  }
+
+  /**
+   * Sets caching, and batch if allowed, by the sampled rows
+   *
+   * @param scan the scan to set up
+   * @param rows number of rows sampled
+   * @param cells number of cells in them
+   * @param bytes number of bytes in them
+   * @param cellLevel true if rows may be split into batches of cells
+   */
+  static void size(Scan scan, int rows, long cells, long bytes, boolean cellLevel) {
+    if (rows == 0) {
+      scan.setCaching(DEFAULT_CACHING);
+      return;
+    }
+    long rowSize = Math.max(1, bytes / rows);
+    scan.setCaching((int) Math.max(1, Math.min(MAX_CACHING, TARGET_BYTES / rowSize)));
+    if (cells / rows > WIDE_ROW) {
+      if (cellLevel) {
+        scan.setBatch(WIDE_ROW);
+      } else {
+        log.info("Rows have " + cells / rows + " cells on average; not batching them, the action needs whole rows");
+      }
+    }
+  }
+
+  /**
+   * Describes scan settings, for job details
+   *
+   * @param scan the scan
+   * @return human-readable settings
+   */
+  public static String describe(Scan scan) {
+    List<String> columns = Lists.newArrayList();
+    for (Map.Entry<byte[], NavigableSet<byte[]>> entry : scan.getFamilyMap().entrySet()) {
+      String family = Bytes.toString(entry.getKey());
+      if (entry.getValue() == null || entry.getValue().isEmpty()) {
+        columns.add(family);
+      } else {
+        for (byte[] qualifier : entry.getValue()) {
+          columns.add(family + ":" + Bytes.toString(qualifier));
+        }
+      }
+    }
+    TimeRange range = scan.getTimeRange();
+    boolean allTime = range.getMin() == 0 && range.getMax() == Long.MAX_VALUE;
+    return String.format("caching: %d, batch: %d, cacheBlocks: %b, columns: [%s]",
+        scan.getCaching(), scan.getBatch(), scan.getCacheBlocks(), Joiner.on(",").join(columns)) +
+        (allTime ? "" : String.format(", time: [%d, %d)", range.getMin(), range.getMax()));
+  }
+}
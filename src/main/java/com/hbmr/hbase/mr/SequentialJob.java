@@ -1,14 +1,18 @@
 package com.hbmr.hbase.mr;
 
+import java.io.IOException;
 import java.util.List;
 
 /**
- * Sequential mapreduce job
+ * Sequential mapreduce job; the next job is started from the previous one's completion listener,
+ * so a chain, however long or nested, does not hold a thread.
+ * If a job fails, the chain stops there; resume() continues from the failed job.
  *
  * @author Vlad Patryshev
  */
 public class SequentialJob extends BulkJob implements MrJob {
   volatile int position = 0;
+  private volatile boolean stopped = false;
 
   public SequentialJob(MrJob... jobs) {
     super(jobs);
@@ -22,40 +26,63 @@ public class SequentialJob extends BulkJob implements MrJob {
     if (!isStarted()) {
       markStart();
       isStarted = true;
+      startNext();
+    }
+  }
 
-      new Thread() {
-        public void run() {
-          while (position < jobs.size()) {
-            try {
-              System.out.println(this + ": waiting, " + position + "/" + jobs.size() + " done.");
-              MrJob job = jobs.get(position);
-              job.waitForCompletion();
-              System.out.println("===Finished: " + job.details());
-              position++;
-            } catch (InterruptedException e) {
-              interrupt();
-            }
-          }
-          isComplete = true;
-        }
-      }.start();
+  /**
+   * Starts the first job that is not done yet, or completes the sequence; the next call comes from
+   * childCompleted(), on a listener thread, so a long sequence of jobs that complete at once does not nest calls
+   */
+  private void startNext() {
+    for (; position < jobs.size(); position++) {
+      MrJob job = jobs.get(position);
+      if (!isDone(job)) {
+        log.info(this + ": " + position + "/" + jobs.size() + " done, starting " + job.getName());
+        watch(job);
+        job.start();
+        return;
+      }
+      log.info(this + ": " + job.getName() + " is done already");
     }
+    isComplete();
   }
 
-  public boolean waitForCompletion() throws InterruptedException {
-    start();
-    while (!isComplete) {
-      sleep();
+  @Override
+  protected synchronized void childCompleted(MrJob job) {
+    log.info("Finished: " + job.details());
+    checkpoint(job);
+    if (isCancelled) {
+      isComplete();
+    } else if (job.isSuccessful()) {
+      position++;
+      startNext();
+    } else {
+      log.error(this + ": stopped, since " + job.getName() + " failed");
+      stopped = true;
+      isComplete();
     }
-    return isSuccessful();
   }
 
   @Override
-  protected String kind() {
-    return "seq";
+  public boolean isComplete() {
+    if (!isComplete && isStarted && (stopped || position >= jobs.size())) {
+      isComplete = true;
+    }
+    if (isStarted) markStop();
+    return isComplete;
   }
 
-  protected void sleep() {
+  @Override
+  protected void rebuild() throws IOException {
+    super.rebuild();
+    stopped = false;
+    position = 0;
+  }
+
+  @Override
+  protected String kind() {
+    return "seq";
   }
 
 }
@@ -1,11 +1,14 @@
 package com.hbmr.hbase.mr;
 
 import java.io.IOException;
+import java.util.concurrent.Callable;
 
 import org.apache.hadoop.mapreduce.Job;
 
 /**
- * Simple mapreduce job, just a delegate to hadoop mr job
+ * Simple mapreduce job, just a delegate to hadoop mr job.
+ * Hadoop has no completion callback, so running jobs are checked by the shared JobMonitor;
+ * whoever waits for a job, waits on its completion future.
  *
  * @author Vlad Patryshev
  */
@@ -13,25 +16,51 @@ public class SimpleJob extends CommonJob {
 //  private static final float SETUP_WEIGHT = 0.2f;
   private static final float MAP_WEIGHT = 0.5f;
   private static final float REDUCE_WEIGHT = 0.5f;
+  /**
+   * How often (millis) the monitor asks hadoop for a running job's state
+   */
+  public static final String STATE_POLL_INTERVAL = "mr.framework.state.poll.interval";
+  public static final long DEFAULT_STATE_POLL_INTERVAL = 1000;
 
   private Job job;
+  private volatile JobMetrics lastMetrics;
 
   SimpleJob(Job job) {
     this.job = job;
   }
 
   public synchronized void start() {
+    JobMonitor.checkMayBlock("Submitting " + getName());
     try {
       if (!isStarted()) {
         markStart();
         job.submit();
         isStarted = true;
+        if (isCancelled) kill();
+        watch();
       }
     } catch (Exception e) {
       log.error("Could not start " + this, e);
+      isStarted = true;
+      isSuccessful = false;
+      isComplete = true;
+      markStop();
     }
   }
 
+  private void watch() {
+    monitor.watch(new Callable<Boolean>() {
+      public Boolean call() {
+        return isComplete();
+      }
+
+      @Override
+      public String toString() {
+        return getName();
+      }
+    }, job.getConfiguration().getLong(STATE_POLL_INTERVAL, DEFAULT_STATE_POLL_INTERVAL));
+  }
+
   public boolean isComplete() {
     if (isStarted && !isComplete) {
       try {
@@ -39,7 +68,7 @@ public class SimpleJob extends CommonJob {
       } catch (IOException e) {
         log.error("Could not check state " + this, e);
         isSuccessful = false;
-        return true;
+        isComplete = true;
       } finally {
         markStop();
       }
@@ -48,7 +77,7 @@ public class SimpleJob extends CommonJob {
   }
 
   public boolean isSuccessful() {
-    if (!isStarted || !isComplete() || !isSuccessful) return false;
+    if (!isStarted || !isComplete() || !isSuccessful || isCancelled) return false;
 
     try {
       isSuccessful = job.isSuccessful();
@@ -60,21 +89,8 @@ public class SimpleJob extends CommonJob {
   }
 
   public boolean waitForCompletion() throws InterruptedException {
-    if (isComplete()) return true;
-    System.out.println(details() + ": waiting");
-
-    try {
-      start();
-      isSuccessful = job.waitForCompletion(VERBOSITY);
-      isComplete = true;
-    } catch (IOException e) {
-      log.error("Could not wait " + this, e);
-      isSuccessful = false;
-    } catch (ClassNotFoundException e) {
-      log.error("Could not wait " + this, e);
-      isSuccessful = false;
-    }
-    return isSuccessful();
+    start();
+    return awaitCompletion();
   }
 
   public float progress() {
@@ -87,12 +103,52 @@ public class SimpleJob extends CommonJob {
     return lastProgress;
   }
 
+  @Override
+  protected void kill() {
+    if (!isStarted) return;
+    try {
+      job.killJob();
+    } catch (Exception e) {
+      log.error("Could not kill " + this, e);
+    }
+  }
+
+  /**
+   * A hadoop job can only be submitted once; a new one is built from the old one's configuration
+   */
+  @Override
+  protected void rebuild() throws IOException {
+    job = new Job(job.getConfiguration(), job.getJobName());
+    lastMetrics = null;
+  }
+
+  /**
+   * @return the hadoop job of the current attempt
+   */
+  protected Job job() {
+    return job;
+  }
+
+  @Override
+  public JobMetrics metrics() {
+    if (isStarted) {
+      try {
+        lastMetrics = JobMetrics.of(job.getCounters(), timeRunning(), progress());
+      } catch (IOException e) {
+        log.error("Could not get counters " + this, e);
+      }
+    }
+    return lastMetrics == null ? super.metrics() : lastMetrics;
+  }
+
   public String getName() {
     return job.getJobName();
   }
 
   public String details() {
-    String head = String.format("\"%s\" time: %d ", job.getJobName(), timeRunning());
+    String plan = job.getConfiguration().get(ScanPlanner.SCAN_PLAN);
+    String head = String.format("\"%s\" time: %d ", job.getJobName(), timeRunning()) +
+        (plan == null ? "" : "scan: {" + plan + "} ");
     try {
       return isComplete() ? head +
           String.format("Complete, success: %b", isSuccessful()) :
@@ -108,7 +164,7 @@ public class SimpleJob extends CommonJob {
   }
 
   public String explainError() {
-    return isComplete() && !isSuccessful() ? (getName() + " failed") : "";
+    return isComplete() && !isSuccessful() ? (getName() + whyFailed()) : "";
   }
 
 }
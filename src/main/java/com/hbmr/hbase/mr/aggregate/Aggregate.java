@@ -0,0 +1,84 @@
+package com.hbmr.hbase.mr.aggregate;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.hbmr.common.collect.ByteArray;
+import com.hbmr.hbase.mr.BytesMrAction;
+
+/**
+ * Base class for typed aggregations. Values travel through the shuffle in a fixed-width binary form,
+ * partial results are merged without any parsing, and the final value is formatted only once,
+ * in reduce, right before it goes into a Put.
+ *
+ * @author Vlad Patryshev
+ */
+public abstract class Aggregate extends BytesMrAction {
+
+  /**
+   * Merges partial results (binary form) into one partial result
+   *
+   * @param partials binary partial results
+   * @return merged result, binary, or null if there was nothing to merge
+   */
+  protected abstract ByteArray merge(Iterable<ByteArray> partials);
+
+  /**
+   * Formats a partial result for output
+   *
+   * @param partial binary result
+   * @return what should be written to the table
+   */
+  protected abstract ByteArray output(ByteArray partial);
+
+  /**
+   * Turns an output value back into a partial result, so that incremental runs can be merged into it.
+   * Not every aggregate can do it (a mean does not keep the count); default is that it cannot.
+   *
+   * @param output value as written to the table
+   * @return binary partial result
+   */
+  protected ByteArray parse(ByteArray output) {
+    throw new UnsupportedOperationException(getClass().getSimpleName() + " output cannot be merged incrementally");
+  }
+
+  @Override
+  public boolean isAssociative() {
+    return true;
+  }
+
+  /**
+   * Only aggregates that can parse their output can be merged into it; override along with parse()
+   */
+  @Override
+  public boolean isMergeable() {
+    return false;
+  }
+
+  @Override
+  public ByteArray combineBytes(Iterable<ByteArray> valuesToCombine, Configuration config) {
+    return merge(valuesToCombine);
+  }
+
+  @Override
+  public ByteArray reduceBytes(Iterable<ByteArray> valuesToReduce, Configuration config) {
+    ByteArray merged = merge(valuesToReduce);
+    return merged == null ? null : output(merged);
+  }
+
+  @Override
+  public ByteArray mergeBytes(ByteArray existing, ByteArray delta, Configuration config) {
+    ByteArray merged = merge(Arrays.asList(parse(existing), parse(delta)));
+    return merged == null ? null : output(merged);
+  }
+
+  static long longAt(ByteArray bytes, int offset) {
+    return bytes.getLong(offset);
+  }
+
+  static ByteArray text(String s) {
+    return new ByteArray(Bytes.toBytes(s));
+  }
+}
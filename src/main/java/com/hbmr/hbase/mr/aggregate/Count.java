@@ -0,0 +1,39 @@
+package com.hbmr.hbase.mr.aggregate;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Result;
+
+import com.hbmr.common.collect.ByteArray;
+
+/**
+ * Counts rows per key; subclasses tell which keys a row counts towards.
+ *
+ * @author Vlad Patryshev
+ */
+public abstract class Count extends LongSum {
+  private static final Long ONE = 1L;
+
+  /**
+   * Keys this row should be counted for
+   *
+   * @param rowkey row key, a view, not a copy
+   * @param inputData the row
+   * @param config configuration
+   * @return keys, possibly none
+   */
+  public abstract Iterable<ByteArray> keys(ByteArray rowkey, Result inputData, Configuration config);
+
+  @Override
+  public final Map<ByteArray, Long> values(ByteArray rowkey, Result inputData, Configuration config) {
+    Map<ByteArray, Long> result = null;
+    for (ByteArray key : keys(rowkey, inputData, config)) {
+      if (result == null) result = new LinkedHashMap<ByteArray, Long>();
+      result.put(key, ONE);
+    }
+    return result == null ? Collections.<ByteArray, Long>emptyMap() : result;
+  }
+}
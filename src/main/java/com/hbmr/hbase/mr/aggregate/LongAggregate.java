@@ -0,0 +1,84 @@
+package com.hbmr.hbase.mr.aggregate;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.hbmr.common.collect.ByteArray;
+
+/**
+ * Aggregation of long values; a value is 8 bytes in the shuffle, and decimal text in the output table.
+ *
+ * @author Vlad Patryshev
+ */
+public abstract class LongAggregate extends Aggregate {
+  static final int WIDTH = Long.SIZE / 8;
+
+  /**
+   * Extracts values from a row
+   *
+   * @param rowkey row key, a view, not a copy
+   * @param inputData the row
+   * @param config configuration
+   * @return output key to value map
+   */
+  public abstract Map<ByteArray, Long> values(ByteArray rowkey, Result inputData, Configuration config);
+
+  /**
+   * The aggregating operation; must be associative and commutative
+   *
+   * @param accumulated value accumulated so far
+   * @param value next value
+   * @return new accumulated value
+   */
+  protected abstract long apply(long accumulated, long value);
+
+  @Override
+  public Map<ByteArray, ByteArray> mapBytes(ByteArray rowkey, Result inputData, Configuration config) {
+    Map<ByteArray, Long> values = values(rowkey, inputData, config);
+    if (values.isEmpty()) return Collections.emptyMap();
+    Map<ByteArray, ByteArray> result = new LinkedHashMap<ByteArray, ByteArray>();
+    for (Map.Entry<ByteArray, Long> entry : values.entrySet()) {
+      result.put(entry.getKey(), new ByteArray(entry.getValue().longValue()));
+    }
+    return result;
+  }
+
+  /**
+   * @throws IllegalArgumentException if a partial is not 8 bytes, e.g. text that did not go through parse()
+   */
+  @Override
+  protected ByteArray merge(Iterable<ByteArray> partials) {
+    boolean found = false;
+    long accumulated = 0;
+    for (ByteArray partial : partials) {
+      if (partial.size() != WIDTH) {
+        throw new IllegalArgumentException(getClass().getSimpleName() + " expects " + WIDTH + "-byte longs, got \"" +
+            Bytes.toStringBinary(partial.getBytes()) + "\" (" + partial.size() + " bytes)");
+      }
+      long value = longAt(partial, 0);
+      accumulated = found ? apply(accumulated, value) : value;
+      found = true;
+    }
+    return found ? new ByteArray(accumulated) : null;
+  }
+
+  @Override
+  protected ByteArray output(ByteArray partial) {
+    return text(Long.toString(longAt(partial, 0)));
+  }
+
+  @Override
+  public boolean isMergeable() {
+    return true;
+  }
+
+  @Override
+  protected ByteArray parse(ByteArray output) {
+    return new ByteArray(Long.parseLong(Bytes.toString(output.getBytes()).trim()));
+  }
+}
@@ -0,0 +1,14 @@
+package com.hbmr.hbase.mr.aggregate;
+
+/**
+ * Finds maximum of long values per key; subclasses extract the values from rows.
+ *
+ * @author Vlad Patryshev
+ */
+public abstract class LongMax extends LongAggregate {
+
+  @Override
+  protected long apply(long accumulated, long value) {
+    return Math.max(accumulated, value);
+  }
+}
@@ -0,0 +1,14 @@
+package com.hbmr.hbase.mr.aggregate;
+
+/**
+ * Sums up long values per key; subclasses extract the values from rows.
+ *
+ * @author Vlad Patryshev
+ */
+public abstract class LongSum extends LongAggregate {
+
+  @Override
+  protected long apply(long accumulated, long value) {
+    return accumulated + value;
+  }
+}
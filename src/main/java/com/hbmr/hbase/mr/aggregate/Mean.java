@@ -0,0 +1,69 @@
+package com.hbmr.hbase.mr.aggregate;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Result;
+
+import com.hbmr.common.collect.ByteArray;
+
+/**
+ * Average of long values per key. A partial result is a (sum, count) pair, 16 bytes;
+ * the output is the decimal text of sum/count.
+ *
+ * @author Vlad Patryshev
+ */
+public abstract class Mean extends Aggregate {
+  static final int WIDTH = 2 * LongAggregate.WIDTH;
+
+  /**
+   * Extracts values from a row
+   *
+   * @param rowkey row key, a view, not a copy
+   * @param inputData the row
+   * @param config configuration
+   * @return output key to value map
+   */
+  public abstract Map<ByteArray, Long> values(ByteArray rowkey, Result inputData, Configuration config);
+
+  @Override
+  public Map<ByteArray, ByteArray> mapBytes(ByteArray rowkey, Result inputData, Configuration config) {
+    Map<ByteArray, Long> values = values(rowkey, inputData, config);
+    if (values.isEmpty()) return Collections.emptyMap();
+    Map<ByteArray, ByteArray> result = new LinkedHashMap<ByteArray, ByteArray>();
+    for (Map.Entry<ByteArray, Long> entry : values.entrySet()) {
+      result.put(entry.getKey(), pair(entry.getValue().longValue(), 1));
+    }
+    return result;
+  }
+
+  @Override
+  protected ByteArray merge(Iterable<ByteArray> partials) {
+    boolean found = false;
+    long sum = 0;
+    long count = 0;
+    for (ByteArray partial : partials) {
+      if (partial.size() == WIDTH) {
+        sum += longAt(partial, 0);
+        count += longAt(partial, LongAggregate.WIDTH);
+        found = true;
+      }
+    }
+    return found ? pair(sum, count) : null;
+  }
+
+  @Override
+  protected ByteArray output(ByteArray partial) {
+    long count = longAt(partial, LongAggregate.WIDTH);
+    return count == 0 ? null : text(Double.toString((double) longAt(partial, 0) / count));
+  }
+
+  private static ByteArray pair(long sum, long count) {
+    ByteBuffer buf = ByteBuffer.allocate(WIDTH);
+    buf.putLong(sum).putLong(count);
+    return new ByteArray(buf.array());
+  }
+}
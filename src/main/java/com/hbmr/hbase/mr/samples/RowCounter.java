@@ -1,43 +1,30 @@
 package com.hbmr.hbase.mr.samples;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Result;
-import com.hbmr.hbase.mr.MrAction;
+
+import com.hbmr.common.collect.ByteArray;
+import com.hbmr.hbase.mr.aggregate.Count;
 
 /**
  * Sample mapreduce action: counts rows in a table.
+ * Counts travel as 8-byte longs, only the total is written as text.
  * TODO(vlad): ignore the rows marked as deleted
  *
  * @author Vlad Patryshev
  */
-public class RowCounter extends MrAction {
+public class RowCounter extends Count {
   private static final String KEY = "counter.key";
 
-  public Map<String, String> map(String rowkey, Result data, Configuration config) {
-    String key = config.get(KEY);
-    Map<String, String> result = new HashMap<String, String>();
+  public Iterable<ByteArray> keys(ByteArray rowkey, Result data, Configuration config) {
     for (KeyValue value : data.list()) {
-      if (value.getValue().length > 0) {
-        result.put(key, "1");
-        break;
-      }
-    }
-    return result;
-  }
-
-  public String reduce(Iterable<String> values, Configuration config) {
-    long sum = 0;
-    for (String value : values) {
-      try {
-        sum += Long.parseLong(value);
-      } catch (Exception e) {
-        // just ignore bad strings
+      if (value.getValueLength() > 0) {
+        return Collections.singleton(new ByteArray(config.get(KEY)));
       }
     }
-    return Long.toString(sum);
+    return Collections.emptySet();
   }
 }
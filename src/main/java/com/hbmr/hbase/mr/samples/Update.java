@@ -10,6 +10,7 @@ import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Mapper;
 
+import com.hbmr.hbase.mr.HBaseOutputFormat;
 import com.hbmr.hbase.mr.RowAction;
 
 /**
@@ -22,10 +23,19 @@ public abstract class Update extends RowAction {
   @Override
   public void process(String rowkey, Result inputData, Mapper<ImmutableBytesWritable, Result, Writable, Writable>.Context context) throws IOException, InterruptedException {
     for (Row row : transform(rowkey, inputData, context.getConfiguration())) {
-      context.write(null, row);
+      context.write(new ImmutableBytesWritable(row.getRow()), row); // the key lets bulk load partition and sort
+      HBaseOutputFormat.count(context, row);
     }
   }
 
+  /**
+   * transform() may return Deletes; an Update that only makes Puts can say so, and be bulk loaded
+   */
+  @Override
+  public boolean writesDeletes() {
+    return true;
+  }
+
   /**
    * Transforms a row into output sequence (can be Deletes or Puts)
    *
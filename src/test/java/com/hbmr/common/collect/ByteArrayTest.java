@@ -0,0 +1,281 @@
+package com.hbmr.common.collect;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+public class ByteArrayTest extends TestCase {
+
+  /**
+   * Takes at most 3 bytes per write, like a busy socket
+   */
+  static class TrickleChannel implements WritableByteChannel {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    public int write(ByteBuffer src) {
+      int n = Math.min(3, src.remaining());
+      for (int i = 0; i < n; i++) {
+        out.write(src.get());
+      }
+      return n;
+    }
+
+    public boolean isOpen() {
+      return true;
+    }
+
+    public void close() {
+    }
+  }
+
+  @Test
+  public void test_primitives() throws Exception {
+    ByteArray bytes = ByteArray.concat(new ByteArray("ab"), new ByteArray(0x01020304), new ByteArray(-2L)).slice(1, 14);
+    assertEquals('b', bytes.byteAt(0));
+    assertEquals(0x01020304, bytes.getInt(1));
+    assertEquals(-2L, bytes.getLong(5));
+
+    ByteArray.Cursor cursor = bytes.cursor();
+    assertEquals('b', cursor.nextByte());
+    assertEquals(0x01020304, cursor.nextInt());
+    assertEquals(-2L, cursor.nextLong());
+    assertFalse(cursor.hasNext());
+    assertEquals((byte) 0xfe, cursor.previousByte());
+
+    final int[] sum = {0};
+    int stopped = new ByteArray("hello, world").forEachByte(new ByteProcessor() {
+      public boolean process(byte value) {
+        sum[0] += value;
+        return value != ',';
+      }
+    });
+    assertEquals(5, stopped);
+    assertEquals('h' + 'e' + 'l' + 'l' + 'o' + ',', sum[0]);
+
+    ListIterator<Byte> i = new ByteArray("xyz").listIterator(1);
+    assertEquals((byte) 'y', (byte) i.next());
+    assertEquals((byte) 'y', (byte) i.previous());
+    assertEquals(0, i.previousIndex());
+  }
+
+  @Test
+  public void test_search() throws Exception {
+    ByteArray text = new ByteArray("the cat sat on the mat");
+    assertEquals(4, text.indexOf(new ByteArray("cat")));
+    assertEquals(15, text.lastIndexOf(new ByteArray("the")));
+    assertEquals(-1, text.indexOf(new ByteArray("dog")));
+    assertTrue(text.slice(4, 22).startsWith(new ByteArray("cat")));
+    assertTrue(text.endsWith(new ByteArray("mat")));
+    assertEquals(new ByteArray("cat").hashCode(), text.slice(4, 7).hashCode());
+  }
+
+  @Test
+  public void test_write_read() throws Exception {
+    ByteArray value = new ByteArray("a value that needs several writes");
+    TrickleChannel channel = new TrickleChannel();
+    value.writeTo(channel);
+    ByteArray empty = new ByteArray("");
+    empty.writeTo(channel);
+    ByteArrayOutputStream gathered = new ByteArrayOutputStream();
+    value.writeTo(Channels.newChannel(gathered));
+
+    ByteArray written = new ByteArray(channel.out.toByteArray());
+    assertEquals(4 + value.size() + 4, written.size());
+    assertEquals(new ByteArray(gathered.toByteArray()), written.slice(0, 4 + value.size()));
+    assertEquals(value, ByteArray.readFrom(written.readFrom()));
+
+    try {
+      ByteArray.readFrom(written.slice(0, 10).readFrom());
+      fail("read a truncated record");
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void test_order() throws Exception {
+    Random random = new Random(42);
+    for (int i = 0; i < 10000; i++) {
+      byte[] a = new byte[random.nextInt(20)];
+      random.nextBytes(a);
+      byte[] b = a.clone();
+      if (b.length > 0 && random.nextBoolean()) b[random.nextInt(b.length)] = (byte) random.nextInt();
+      if (random.nextInt(4) == 0) b = Bytes.head(b, random.nextInt(b.length + 1));
+      ByteArray x = new ByteArray(a);
+      ByteArray y = new ByteArray(b);
+      assertEquals(Integer.signum(Bytes.compareTo(a, b)), ByteArray.UNSIGNED.compare(x, y));
+      assertEquals(signedCompare(a, b), x.compareTo(y));
+      assertEquals(Bytes.equals(a, b), x.equals(y));
+    }
+    assertTrue(new ByteArray((byte) 0x7f).compareTo(new ByteArray((byte) 0x80)) > 0);
+    assertTrue(new ByteArray((byte) 0x7f).compareUnsigned(new ByteArray((byte) 0x80)) < 0);
+  }
+
+  private static int signedCompare(byte[] a, byte[] b) {
+    for (int i = 0; i < Math.min(a.length, b.length); i++) {
+      if (a[i] != b[i]) return a[i] < b[i] ? -1 : 1;
+    }
+    return Integer.signum(a.length - b.length);
+  }
+
+  @Test
+  public void test_search_engines() throws Exception {
+    Random random = new Random(7);
+    for (int round = 0; round < 300; round++) {
+      byte[] bytes = new byte[random.nextInt(100)];
+      for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) "ab\u0080\u00ff".charAt(random.nextInt(4));
+      ByteArray text = new ByteArray(bytes);
+      byte b = (byte) "ab\u0080\u00ff".charAt(random.nextInt(4));
+      int from = random.nextInt(bytes.length + 1);
+      assertEquals(naiveIndexOf(bytes, new byte[] {b}, from), text.indexOf(b, from));
+      assertEquals(naiveLastIndexOf(bytes, b), text.lastIndexOf(b));
+
+      byte[] needle = new byte[1 + random.nextInt(4)];
+      for (int i = 0; i < needle.length; i++) needle[i] = (byte) "ab".charAt(random.nextInt(2));
+      assertEquals(naiveIndexOf(bytes, needle, from), BytePattern.compile(new ByteArray(needle)).indexIn(text, from));
+    }
+
+    MultiPattern tokens = MultiPattern.compile(new ByteArray("he"), new ByteArray("she"), new ByteArray("his"), new ByteArray("hers"));
+    final List<String> found = new ArrayList<String>();
+    final ByteArray text = new ByteArray("ushers and his");
+    int count = tokens.forEachMatch(text, new MultiPattern.MatchProcessor() {
+      public boolean process(int pattern, int start, int end) {
+        found.add(text.slice(start, end).toString() + "@" + start);
+        return true;
+      }
+    });
+    assertEquals(4, count);
+    assertEquals("[she@1, he@2, hers@2, his@11]", found.toString());
+    assertEquals(1, tokens.indexIn(text, 0));
+    assertEquals(11, tokens.indexIn(text, 5));
+    assertFalse(tokens.containsAny(new ByteArray("hostess")));
+    assertEquals(2, BytePattern.compile(new ByteArray("at")).countIn(new ByteArray("the cat sat")));
+  }
+
+  @Test
+  public void test_composite() throws Exception {
+    ByteArray key = new ByteArray("");
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 20; i++) {
+      String part = "part" + i + ",";
+      key = key.concat(new ByteArray("[" + part + "]").slice(1, part.length() + 1));
+      expected.append(part);
+    }
+    ByteArray flat = new ByteArray(expected.toString());
+    assertEquals(flat.size(), key.size());
+    assertEquals(flat, key);
+    assertEquals(key, flat);
+    assertEquals(flat.hashCode(), key.hashCode());
+    assertEquals(0, key.compareTo(flat));
+    for (int i = 0; i + 8 <= flat.size(); i++) {
+      assertEquals(flat.byteAt(i), key.byteAt(i));
+      assertEquals(flat.getInt(i), key.getInt(i));
+      assertEquals(flat.getLong(i), key.getLong(i));
+    }
+    assertEquals(flat.slice(3, 40), key.slice(3, 40));
+    assertEquals(flat.slice(3, 40).hashCode(), key.slice(3, 40).hashCode());
+    assertEquals(flat.indexOf(new ByteArray("part17")), key.indexOf(new ByteArray("part17")));
+    assertEquals(flat.lastIndexOf((byte) '9'), key.lastIndexOf((byte) '9'));
+    assertEquals(expected.toString(), key.toString());
+
+    TrickleChannel trickled = new TrickleChannel();
+    key.writeTo(trickled);
+    ByteArrayOutputStream gathered = new ByteArrayOutputStream();
+    key.writeTo(Channels.newChannel(gathered));
+    ByteArrayOutputStream expectedOut = new ByteArrayOutputStream();
+    flat.writeTo(Channels.newChannel(expectedOut));
+    assertEquals(new ByteArray(expectedOut.toByteArray()), new ByteArray(trickled.out.toByteArray()));
+    assertEquals(new ByteArray(expectedOut.toByteArray()), new ByteArray(gathered.toByteArray()));
+    File file = File.createTempFile("composite", ".bin");
+    file.deleteOnExit();
+    FileChannel gathering = new RandomAccessFile(file, "rw").getChannel();
+    key.writeTo(gathering);
+    gathering.position(0);
+    assertEquals(flat, ByteArray.readFrom(gathering));
+    gathering.close();
+
+    assertFalse("no array until asked for", key.hasArray());
+    assertEquals(expected.toString(), new String(key.array(), key.arrayOffset(), key.size(), "UTF-8"));
+    assertTrue(key.hasArray());
+    assertSame(key.array(), key.array());
+    assertEquals(flat, key.slice(0, 10).concat(key.slice(10, key.size())));
+
+    ByteArray ab = ByteArray.concat(new ByteArray("a"), new ByteArray("b"));
+    ByteArray abc = ab.concat(new ByteArray("c"));
+    ByteArray abd = ab.concat(new ByteArray("d"));
+    assertEquals(new ByteArray("ab"), ab);
+    assertEquals(new ByteArray("abc"), abc);
+    assertEquals(new ByteArray("abd"), abd);
+    assertEquals(new ByteArray("abde"), abd.concat(new ByteArray("e")));
+    assertEquals(new ByteArray("abc"), abc);
+
+    ByteArray log = new ByteArray("");
+    int n = 200000;
+    for (int i = 0; i < n; i++) {
+      log = log.concat(new ByteArray(new byte[] {(byte) i}));
+    }
+    assertEquals(n, log.size());
+    assertEquals((byte) (n - 1), log.byteAt(n - 1));
+  }
+
+  @Test
+  public void test_reader() throws Exception {
+    TrickleChannel channel = new TrickleChannel();
+    List<ByteArray> records = new ArrayList<ByteArray>();
+    Random random = new Random(11);
+    for (int i = 0; i < 500; i++) {
+      byte[] bytes = new byte[i % 50 == 0 ? 300 : random.nextInt(20)];
+      random.nextBytes(bytes);
+      records.add(new ByteArray(bytes));
+      records.get(i).writeTo(channel);
+    }
+    ByteArray written = new ByteArray(channel.out.toByteArray());
+
+    for (BufferAllocator allocator : new BufferAllocator[] {
+        BufferAllocator.HEAP, new SlabAllocator(1024, false), new SlabAllocator(1024, true)}) {
+      ByteArray.Reader reader = new ByteArray.Reader(written.readFrom(), allocator);
+      for (ByteArray record : records) {
+        assertEquals(allocator.toString(), record, reader.read());
+      }
+      assertNull(reader.read());
+    }
+
+    try {
+      new ByteArray.Reader(written.slice(0, 2).readFrom(), BufferAllocator.HEAP).read();
+      fail("read a truncated size");
+    } catch (EOFException expected) {
+    }
+    try {
+      new ByteArray.Reader(written.readFrom(), BufferAllocator.HEAP, 10).read();
+      fail("read an array over the limit");
+    } catch (IOException expected) {
+    }
+  }
+
+  private static int naiveIndexOf(byte[] text, byte[] needle, int from) {
+    for (int i = from; i + needle.length <= text.length; i++) {
+      if (Bytes.compareTo(text, i, needle.length, needle, 0, needle.length) == 0) return i;
+    }
+    return -1;
+  }
+
+  private static int naiveLastIndexOf(byte[] text, byte b) {
+    for (int i = text.length - 1; i >= 0; i--) {
+      if (text[i] == b) return i;
+    }
+    return -1;
+  }
+}
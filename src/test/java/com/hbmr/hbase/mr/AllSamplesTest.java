@@ -99,6 +99,21 @@ public class AllSamplesTest extends TestCase {
     runAndCheck(job);
   }
 
+  @Test
+  public void test_bulk_count_pets() throws Exception {
+    Framework sut = new Framework();
+    sut.createTable(TABLE_NAME, FAMILY_NAME);
+    sut.set(COUNTER_KEY, "Pet");
+    Scan scan = new Scan();
+    scan.setFilter(new FirstKeyOnlyFilter());
+    scan.addFamily(Bytes.toBytes("family"));
+    String hfiles = "/tmp/hbmr-bulk-" + System.currentTimeMillis();
+    MrJob job = sut.newBulkLoadJob("Bulk Counting Pets", "Pet", scan, "Stats..:stats:bulk", hfiles, RowCounter.class);
+    runAndCheck(job);
+    Result result = new HTable(TABLE_NAME).get(new Get(Bytes.toBytes("Pet")));
+    assertEquals("17", Bytes.toString(result.getValue(Bytes.toBytes(FAMILY_NAME), Bytes.toBytes("bulk"))));
+  }
+
   public static class PersonUpdates extends Update {
 
     @Override
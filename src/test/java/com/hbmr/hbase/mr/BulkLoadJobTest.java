@@ -0,0 +1,38 @@
+package com.hbmr.hbase.mr;
+
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.junit.Test;
+
+import com.hbmr.hbase.mr.samples.Update;
+
+public class BulkLoadJobTest extends TestCase {
+
+  public static class Cleanup extends Update {
+    public List<? extends Row> transform(String rowkey, Result inputData, Configuration config) {
+      return Collections.emptyList();
+    }
+  }
+
+  @Test
+  public void test_bulk_load_retry() throws Exception {
+    HFileJob hfiles = new HFileJob(new Job(new Configuration(), "bulk"), "/tmp/hfiles");
+    assertEquals("/tmp/hfiles", hfiles.hfilePath());
+    hfiles.rebuild();
+    assertEquals("/tmp/hfiles.1", hfiles.hfilePath());
+    assertTrue(FileOutputFormat.getOutputPath(hfiles.job()).toString().endsWith("/tmp/hfiles.1"));
+    try {
+      new Framework().newBulkLoadJob("cleanup", "data", new Scan(), "stats:family:n", "/tmp/hfiles", Cleanup.class);
+      fail("deletes cannot be bulk loaded");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package com.hbmr.hbase.mr;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class DagJobTest extends TestCase {
+
+  @Override
+  protected void setUp() throws Exception {
+    JobHistory.reset();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    JobHistory.reset();
+  }
+
+  @Test
+  public void test_dag() throws Exception {
+    ManualJob extract = new ManualJob("extract");
+    ManualJob small = new ManualJob("small");
+    ManualJob big = new ManualJob("big");
+    ManualJob report = new ManualJob("report");
+    ManualJob other = new ManualJob("other");
+    JobHistory.record("small", 10);
+    JobHistory.record("big", 1000);
+    DagJob dag = new DagJob(extract, small, big, report, other);
+    dag.setForkFactor(1);
+    dag.dependsOn(small, extract).dependsOn(big, extract).dependsOn(report, big).dependsOn(other, small);
+    try {
+      dag.dependsOn(extract, report);
+      fail("cycle accepted");
+    } catch (IllegalArgumentException expected) {
+    }
+
+    dag.start();
+    assertTrue(extract.isStarted());
+    assertTrue(dag.details().contains("report: waiting for big"));
+    extract.finish(true);
+    assertTrue("critical path first", big.isStarted());
+    assertFalse(small.isStarted());
+    big.finish(false);
+    assertTrue(small.isStarted());
+    assertTrue(dag.details().contains("report: SKIPPED, big failed"));
+    small.finish(true);
+    assertTrue(other.isStarted());
+    assertFalse(dag.onComplete().isDone());
+    other.finish(true);
+    assertEquals(MrJob.Status.ERROR, dag.onComplete().get());
+    assertFalse(report.isStarted());
+    assertTrue(dag.explainError().contains("report: SKIPPED"));
+
+    DagJob chain = new DagJob();
+    MrJob[] steps = new MrJob[100000];
+    for (int i = 0; i < steps.length; i++) {
+      steps[i] = new ManualJob("step " + i);
+      chain.add(steps[i]);
+    }
+    for (int i = steps.length - 1; i > 0; i--) {
+      chain.dependsOn(steps[i], steps[i - 1]);
+    }
+    try {
+      chain.dependsOn(steps[0], steps[steps.length - 1]);
+      fail("a cycle through a long chain");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
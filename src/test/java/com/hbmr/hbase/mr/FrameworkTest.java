@@ -0,0 +1,225 @@
+package com.hbmr.hbase.mr;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.junit.Test;
+
+import com.hbmr.common.RealClock;
+import com.hbmr.common.collect.ByteArray;
+
+public class FrameworkTest extends TestCase {
+
+  public static class Total extends MrAction {
+    @Override
+    public String reduce(Iterable<String> values, Configuration config) {
+      long total = 0;
+      for (String value : values) total += Long.parseLong(value);
+      return Long.toString(total);
+    }
+  }
+
+  /**
+   * Counts per key: "key:n" rows map to (key, n), sums that come to zero are dropped.
+   * Map output keys and values are views of the row key.
+   */
+  public static class Tally extends BytesMrAction {
+    @Override
+    public Map<ByteArray, ByteArray> mapBytes(ByteArray rowkey, Result inputData, Configuration config) {
+      int colon = Framework.asString(rowkey).indexOf(':');
+      return Collections.singletonMap(
+          new ByteArray(rowkey.array(), rowkey.arrayOffset(), colon),
+          new ByteArray(rowkey.array(), rowkey.arrayOffset() + colon + 1, rowkey.size() - colon - 1));
+    }
+
+    @Override
+    public boolean isAssociative() {
+      return true;
+    }
+
+    @Override
+    public ByteArray reduceBytes(Iterable<ByteArray> values, Configuration config) {
+      long total = 0;
+      for (ByteArray value : values) total += Long.parseLong(Framework.asString(value));
+      return total == 0 ? null : new ByteArray(Long.toString(total));
+    }
+  }
+
+  /**
+   * @param written where "key=value" goes for every pair written
+   * @return a writer that keeps nothing of what it is given
+   */
+  private static <K extends Writable, V extends Writable> RecordWriter<K, V> pairs(final List<String> written) {
+    return new RecordWriter<K, V>() {
+      public void write(K key, V value) {
+        written.add(string(key) + "=" + string(value));
+      }
+
+      public void close(TaskAttemptContext context) {
+      }
+    };
+  }
+
+  private static String string(Writable bytes) {
+    ImmutableBytesWritable ibw = (ImmutableBytesWritable) bytes;
+    return Bytes.toString(ibw.get(), ibw.getOffset(), ibw.getLength());
+  }
+
+  private static List<String> sorted(List<String> list) {
+    List<String> copy = new ArrayList<String>(list);
+    Collections.sort(copy);
+    return copy;
+  }
+
+  private static Result cell(String row, String value) {
+    return new Result(new KeyValue[] {new KeyValue(Bytes.toBytes(row), Bytes.toBytes("stats"), Bytes.toBytes("total"), Bytes.toBytes(value))});
+  }
+
+  private static ImmutableBytesWritable key(String row) {
+    return new ImmutableBytesWritable(Bytes.toBytes(row));
+  }
+
+  private static String total(Put put) {
+    return Bytes.toString(put.get(Bytes.toBytes("stats"), Bytes.toBytes("total")).get(0).getValue());
+  }
+
+  /**
+   * @param existing rows already in the table
+   * @param batches sizes of the batched gets
+   * @return a table that only answers batched gets
+   */
+  private static HTableInterface outputTable(final List<Result> existing, final List<Integer> batches) {
+    return (HTableInterface) Proxy.newProxyInstance(FrameworkTest.class.getClassLoader(),
+        new Class<?>[] {HTableInterface.class}, new InvocationHandler() {
+          @SuppressWarnings("unchecked")
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (!method.getName().equals("get")) return null;
+            assertTrue("one get per batch", args[0] instanceof List);
+            List<Get> gets = (List<Get>) args[0];
+            batches.add(gets.size());
+            Result[] results = new Result[gets.size()];
+            for (int i = 0; i < results.length; i++) {
+              results[i] = new Result();
+              for (Result row : existing) {
+                if (Bytes.equals(row.getRow(), gets.get(i).getRow())) results[i] = row;
+              }
+            }
+            return results;
+          }
+        });
+  }
+
+  @Test
+  public void test_map_aggregation_buffer() throws Exception {
+    Configuration config = new Configuration();
+    config.set(Framework.ACTION_CLASS_KEY, Tally.class.getName());
+    config.setLong(Framework.MAP_AGGREGATION_BUFFER, 500); // two entries fit, three do not
+    List<String> written = new ArrayList<String>();
+    Framework.DelegatingMapper mapper = new Framework.DelegatingMapper();
+    Mapper<ImmutableBytesWritable, Result, Writable, Writable>.Context context =
+        mapper.new Context(config, new TaskAttemptID(), null, FrameworkTest.<Writable, Writable>pairs(written), null, new JobMetricsTest.Reporter(), null);
+    mapper.setup(context);
+
+    byte[] buffer = new byte[16]; // hadoop reuses its buffers for every row
+    ImmutableBytesWritable row = new ImmutableBytesWritable(buffer);
+    Result nothing = new Result();
+    for (String key : new String[] {"a:1", "b:2", "a:-1", "b:3", "c:7"}) {
+      Arrays.fill(buffer, (byte) 0);
+      System.arraycopy(Bytes.toBytes(key), 0, buffer, 1, key.length());
+      row.set(buffer, 1, key.length());
+      mapper.map(row, nothing, context);
+      assertTrue("flushed on " + key + ": " + written, written.isEmpty());
+    }
+    row.set(Bytes.toBytes("zzz:1"));
+    mapper.map(row, nothing, context);
+    assertEquals("a added up to nothing and is gone", "[b=5, c=7, zzz=1]", sorted(written).toString());
+
+    row.set(Bytes.toBytes("d:4"));
+    mapper.map(row, nothing, context);
+    assertEquals(3, written.size());
+    mapper.cleanup(context);
+    assertEquals(4, written.size());
+    assertEquals("d=4", written.get(3));
+  }
+
+  @Test
+  public void test_combiner_only_for_associative_actions() throws Exception {
+    Framework framework = new Framework();
+    assertEquals(Framework.DelegatingCombiner.class, framework.buildJob("tally", Tally.class).getCombinerClass());
+    assertNull(framework.buildJob("total", Total.class).getCombinerClass());
+  }
+
+  @Test
+  public void test_combiner_emits_partials() throws Exception {
+    Configuration config = new Configuration();
+    config.set(Framework.ACTION_CLASS_KEY, Tally.class.getName());
+    List<String> written = new ArrayList<String>();
+    JobMetricsTest.Reporter reporter = new JobMetricsTest.Reporter();
+    Framework.DelegatingCombiner combiner = new Framework.DelegatingCombiner();
+    Framework.DelegatingCombiner.Context context = combiner.new Context(config, new TaskAttemptID(), JobMetricsTest.NO_INPUT,
+        reporter.getCounter("test", "keys"), reporter.getCounter("test", "values"), FrameworkTest.<ImmutableBytesWritable, ImmutableBytesWritable>pairs(written), null, reporter, null,
+        ImmutableBytesWritable.class, ImmutableBytesWritable.class);
+
+    combiner.setup(context);
+    combiner.reduce(key("a"), Arrays.asList(key("1"), key("2"), key("4")), context);
+    combiner.reduce(key("b"), Arrays.asList(key("3"), key("-3")), context);
+    combiner.reduce(key("c"), Arrays.asList(key("5")), context);
+    assertEquals("[a=7, c=5]", written.toString());
+  }
+
+  @Test
+  public void test_merge_reads_in_batches() throws Exception {
+    Configuration config = new Configuration();
+    config.set(Framework.ACTION_CLASS_KEY, Total.class.getName());
+    config.set(Framework.OUTPUT_COLUMN, "stats:total");
+    config.setBoolean(Framework.MERGE_OUTPUT, true);
+    config.setInt(HBaseOutputFormat.BATCH_SIZE, 2);
+    List<Put> written = new ArrayList<Put>();
+    HBaseOutputFormat.BatchingRecordWriter writer = new HBaseOutputFormat.BatchingRecordWriter(
+        new TaskAttemptID(), JobMetricsTest.table(written), new RealClock(), Long.MAX_VALUE, 1000, Long.MAX_VALUE);
+    JobMetricsTest.Reporter reporter = new JobMetricsTest.Reporter();
+    List<Integer> batches = new ArrayList<Integer>();
+    Framework.DelegatingReducer reducer = new Framework.DelegatingReducer();
+    reducer.output = outputTable(Arrays.asList(cell("a", "10")), batches);
+    Framework.DelegatingReducer.Context context = reducer.new Context(config, new TaskAttemptID(), JobMetricsTest.NO_INPUT,
+        reporter.getCounter("test", "keys"), reporter.getCounter("test", "values"), JobMetricsTest.tableOutput(writer), null, reporter, null,
+        ImmutableBytesWritable.class, Result.class);
+
+    reducer.setup(context);
+    reducer.reduce(key("a"), Arrays.asList(cell("a", "1"), cell("a", "2")), context);
+    assertTrue(batches.isEmpty());
+    reducer.reduce(key("b"), Arrays.asList(cell("b", "3")), context);
+    assertEquals("[2]", batches.toString());
+    reducer.reduce(key("c"), Arrays.asList(cell("c", "4")), context);
+    assertEquals("[2]", batches.toString());
+    reducer.cleanup(context);
+    assertEquals("[2, 1]", batches.toString());
+    writer.close(context);
+
+    assertEquals(3, written.size());
+    assertEquals("13", total(written.get(0)));
+    assertEquals("3", total(written.get(1)));
+    assertEquals("4", total(written.get(2)));
+    assertEquals("c", Bytes.toString(written.get(2).getRow()));
+  }
+}
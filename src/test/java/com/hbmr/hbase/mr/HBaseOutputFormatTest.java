@@ -0,0 +1,93 @@
+package com.hbmr.hbase.mr;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.junit.Test;
+
+public class HBaseOutputFormatTest extends TestCase {
+  private final ManualClock clock = new ManualClock();
+  private final List<String> calls = new ArrayList<String>();
+
+  /**
+   * @return a table that logs what it is asked to do: "put n" for a batch of n puts, "delete row"
+   */
+  private HTableInterface table() {
+    return (HTableInterface) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] {HTableInterface.class}, new InvocationHandler() {
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("put")) calls.add("put " + ((List<?>) args[0]).size());
+            if (method.getName().equals("delete")) calls.add("delete " + Bytes.toString(((Delete) args[0]).getRow()));
+            return null;
+          }
+        });
+  }
+
+  private HBaseOutputFormat.BatchingRecordWriter writer(long maxBytes, int maxPuts, long maxAge) {
+    return new HBaseOutputFormat.BatchingRecordWriter(new TaskAttemptID(), table(), clock, maxBytes, maxPuts, maxAge);
+  }
+
+  private static Put put(String row) {
+    Put put = new Put(Bytes.toBytes(row));
+    put.add(Bytes.toBytes("f"), Bytes.toBytes("q"), Bytes.toBytes("value of " + row));
+    return put;
+  }
+
+  @Test
+  public void test_flush_by_count() throws Exception {
+    HBaseOutputFormat.BatchingRecordWriter sut = writer(Long.MAX_VALUE, 3, Long.MAX_VALUE);
+    for (int i = 0; i < 7; i++) sut.write(null, put("r" + i));
+    assertEquals("[put 3, put 3]", calls.toString());
+    sut.close(null);
+    assertEquals("[put 3, put 3, put 1]", calls.toString());
+  }
+
+  @Test
+  public void test_flush_by_bytes() throws Exception {
+    long size = put("r0").heapSize();
+    HBaseOutputFormat.BatchingRecordWriter sut = writer(2 * size, 1000, Long.MAX_VALUE);
+    for (int i = 0; i < 5; i++) sut.write(null, put("r" + i));
+    assertEquals("[put 2, put 2]", calls.toString());
+    sut.close(null);
+    assertEquals("[put 2, put 2, put 1]", calls.toString());
+  }
+
+  @Test
+  public void test_flush_by_age() throws Exception {
+    HBaseOutputFormat.BatchingRecordWriter sut = writer(Long.MAX_VALUE, 1000, 100);
+    sut.write(null, put("r0"));
+    clock.sleep(60);
+    sut.write(null, put("r1"));
+    clock.sleep(60);
+    assertTrue("age is only checked on writes", calls.isEmpty());
+    sut.write(null, put("r2"));
+    assertEquals("[put 3]", calls.toString());
+    sut.write(null, put("r3"));
+    clock.sleep(99);
+    sut.write(null, put("r4"));
+    assertEquals("[put 3]", calls.toString());
+    sut.close(null);
+    assertEquals("[put 3, put 2]", calls.toString());
+  }
+
+  @Test
+  public void test_delete_flushes_puts_first() throws Exception {
+    HBaseOutputFormat.BatchingRecordWriter sut = writer(Long.MAX_VALUE, 1000, Long.MAX_VALUE);
+    sut.write(null, put("r0"));
+    sut.write(null, put("r1"));
+    sut.write(null, new Delete(Bytes.toBytes("r0")));
+    sut.write(null, new Delete(Bytes.toBytes("r1")));
+    sut.write(null, put("r0"));
+    sut.close(null);
+    assertEquals("[put 2, delete r0, delete r1, put 1]", calls.toString());
+  }
+}
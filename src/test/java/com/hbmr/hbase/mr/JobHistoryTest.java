@@ -0,0 +1,52 @@
+package com.hbmr.hbase.mr;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import com.hbmr.common.collect.ByteArray;
+import com.hbmr.common.collect.MemReMap;
+import com.hbmr.common.collect.ReMap;
+
+public class JobHistoryTest extends TestCase {
+
+  @Override
+  protected void setUp() throws Exception {
+    JobHistory.reset();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    JobHistory.reset();
+  }
+
+  @Test
+  public void test_moving_average() throws Exception {
+    assertEquals(-1, JobHistory.expected("scan"));
+    JobHistory.record("scan", 1000);
+    assertEquals(1000, JobHistory.expected("scan"));
+    JobHistory.record("scan", 3000);
+    assertEquals(2000, JobHistory.expected("scan"));
+    JobHistory.forget("scan");
+    assertEquals(-1, JobHistory.expected("scan"));
+  }
+
+  @Test
+  public void test_survives_the_process() throws Exception {
+    ReMap<String, ByteArray> store = new MemReMap<String, ByteArray>();
+    new SequentialJob(new ManualJob("extract")).checkpointTo(store, "nightly");
+    JobHistory.record("extract", 600000);
+
+    // the next night
+    JobHistory.reset();
+    assertEquals(-1, JobHistory.expected("extract"));
+    JobHistory.persistTo(store);
+    assertEquals(600000, JobHistory.expected("extract"));
+    JobHistory.record("extract", 400000);
+    assertEquals(new ByteArray(500000L), store.get(JobHistory.KEY_PREFIX + "extract"));
+    try {
+      new SequentialJob().checkpointTo(store, JobHistory.KEY_PREFIX + "nightly");
+      fail("checkpoints would mix with the history");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
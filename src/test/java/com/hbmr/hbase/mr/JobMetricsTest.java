@@ -0,0 +1,138 @@
+package com.hbmr.hbase.mr;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.util.Progress;
+import org.junit.Test;
+
+import com.hbmr.common.RealClock;
+
+public class JobMetricsTest extends TestCase {
+
+  /**
+   * Gives the task the counters of a job, like hadoop does
+   */
+  static class Reporter extends StatusReporter {
+    final Counters counters = new Counters();
+
+    public Counter getCounter(Enum<?> name) {
+      return counters.findCounter(name);
+    }
+
+    public Counter getCounter(String group, String name) {
+      return counters.findCounter(group, name);
+    }
+
+    public void progress() {
+    }
+
+    public void setStatus(String status) {
+    }
+  }
+
+  static final RawKeyValueIterator NO_INPUT = new RawKeyValueIterator() {
+    public DataInputBuffer getKey() {
+      return null;
+    }
+
+    public DataInputBuffer getValue() {
+      return null;
+    }
+
+    public boolean next() {
+      return false;
+    }
+
+    public void close() {
+    }
+
+    public Progress getProgress() {
+      return new Progress();
+    }
+  };
+
+  /**
+   * @param puts where the table's puts go
+   * @return a table that only takes puts
+   */
+  static HTableInterface table(final List<Put> puts) {
+    return (HTableInterface) Proxy.newProxyInstance(JobMetricsTest.class.getClassLoader(),
+        new Class<?>[] {HTableInterface.class}, new InvocationHandler() {
+          @SuppressWarnings("unchecked")
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("put")) puts.addAll((List<Put>) args[0]);
+            return null;
+          }
+        });
+  }
+
+  /**
+   * The reducer writes (Writable, Writable), which hadoop hands to the output format's writer as is
+   */
+  static RecordWriter<Writable, Writable> tableOutput(final HBaseOutputFormat.BatchingRecordWriter writer) {
+    return new RecordWriter<Writable, Writable>() {
+      public void write(Writable key, Writable value) throws IOException {
+        writer.write((ImmutableBytesWritable) key, value);
+      }
+
+      public void close(TaskAttemptContext context) throws IOException {
+        writer.close(context);
+      }
+    };
+  }
+
+  private static Result cell(String row, String value) {
+    return new Result(new KeyValue[] {new KeyValue(Bytes.toBytes(row), Bytes.toBytes("stats"), Bytes.toBytes("total"), Bytes.toBytes(value))});
+  }
+
+  @Test
+  public void test_puts_counted_by_reducer() throws Exception {
+    Configuration config = new Configuration();
+    config.set(Framework.ACTION_CLASS_KEY, LocalEngineTest.KindStats.class.getName());
+    config.set(Framework.OUTPUT_COLUMN, "stats:total");
+    List<Put> written = new ArrayList<Put>();
+    HBaseOutputFormat.BatchingRecordWriter writer = new HBaseOutputFormat.BatchingRecordWriter(
+        new TaskAttemptID(), table(written), new RealClock(), Long.MAX_VALUE, 1000, Long.MAX_VALUE);
+    Reporter reporter = new Reporter();
+    Framework.DelegatingReducer reducer = new Framework.DelegatingReducer();
+    Framework.DelegatingReducer.Context context = reducer.new Context(config, new TaskAttemptID(), NO_INPUT,
+        reporter.getCounter("test", "keys"), reporter.getCounter("test", "values"), tableOutput(writer), null, reporter, null,
+        ImmutableBytesWritable.class, Result.class);
+
+    reducer.setup(context);
+    reducer.reduce(new ImmutableBytesWritable(Bytes.toBytes("dog")), Arrays.asList(cell("d", "sharik"), cell("d", "fido")), context);
+    reducer.reduce(new ImmutableBytesWritable(Bytes.toBytes("cat")), Arrays.asList(cell("c", "neko")), context);
+    reducer.cleanup(context);
+    writer.close(context);
+
+    assertEquals(2, written.size());
+    JobMetrics metrics = JobMetrics.of(reporter.counters, 1000, 1.0f);
+    assertEquals(2, metrics.get(JobMetrics.Measure.PUTS_WRITTEN));
+    assertEquals(1, metrics.get(JobMetrics.Measure.BATCHES_WRITTEN));
+    assertEquals(written.get(0).heapSize() + written.get(1).heapSize(), metrics.get(JobMetrics.Measure.BYTES_WRITTEN));
+    assertEquals(2.0, metrics.putsPerSecond());
+  }
+}
@@ -0,0 +1,127 @@
+package com.hbmr.hbase.mr;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class JobMonitorTest extends TestCase {
+
+  @Override
+  protected void setUp() throws Exception {
+    JobHistory.reset();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    JobHistory.reset();
+  }
+
+  @Test
+  public void test_many_watches_few_threads() throws Exception {
+    JobMonitor monitor = new JobMonitor(2, 2);
+    final int n = 1000;
+    final CountDownLatch done = new CountDownLatch(n);
+    for (int i = 0; i < n; i++) {
+      final AtomicInteger countdown = new AtomicInteger(3);
+      monitor.watch(new Callable<Boolean>() {
+        public Boolean call() {
+          boolean isDone = countdown.decrementAndGet() == 0;
+          if (isDone) done.countDown();
+          return isDone;
+        }
+      }, 1);
+    }
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertTrue(monitor.pollerThreads() <= 2);
+    assertEquals(3L * n, monitor.polls());
+    for (int i = 0; i < 100 && monitor.watching() > 0; i++) Thread.sleep(10);
+    assertEquals(0, monitor.watching());
+  }
+
+  @Test
+  public void test_checks_must_not_block() throws Exception {
+    JobMonitor monitor = new JobMonitor(1, 1);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final CountDownLatch done = new CountDownLatch(1);
+    monitor.watch(new Callable<Boolean>() {
+      public Boolean call() {
+        try {
+          JobMonitor.checkMayBlock("Waiting");
+        } catch (IllegalStateException e) {
+          error.set(e);
+        }
+        done.countDown();
+        return true;
+      }
+    }, 1);
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertTrue(error.get() instanceof IllegalStateException);
+    JobMonitor.checkMayBlock("Waiting in the test");
+  }
+
+  @Test
+  public void test_bounded_queue() throws Exception {
+    JobMonitor monitor = new JobMonitor(1, 1, 1);
+    final CountDownLatch release = new CountDownLatch(1);
+    Runnable blocked = new Runnable() {
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    monitor.run(blocked);
+    monitor.run(blocked);
+    try {
+      monitor.run(blocked);
+      fail("the queue holds one");
+    } catch (RejectedExecutionException expected) {
+    }
+    assertEquals(1, monitor.rejectedWork());
+    assertEquals(2, monitor.pendingWork());
+    assertTrue(monitor.toString().contains("rejected 1"));
+    release.countDown();
+    for (int i = 0; i < 1000 && monitor.pendingWork() > 0; i++) Thread.sleep(1);
+    assertEquals(0, monitor.pendingWork());
+  }
+
+  @Test
+  public void test_groups_complete_when_the_queue_is_full() throws Exception {
+    JobMonitor monitor = new JobMonitor(1, 1, 1);
+    final CountDownLatch release = new CountDownLatch(1);
+    Runnable blocked = new Runnable() {
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    monitor.run(blocked);
+    monitor.run(blocked);
+    ManualJob a = new ManualJob("a");
+    ManualJob b = new ManualJob("b");
+    SequentialJob seq = new SequentialJob(a, b);
+    seq.monitor = monitor;
+    seq.start();
+    try {
+      a.finish(true);
+      for (int i = 0; i < 1000 && !b.isStarted(); i++) Thread.sleep(1);
+      assertTrue("started by a's listener, with the workers busy", b.isStarted());
+      b.finish(true);
+      assertEquals(MrJob.Status.SUCCESS, seq.onComplete().get(10, TimeUnit.SECONDS));
+      assertEquals(0, monitor.rejectedWork());
+    } finally {
+      release.countDown();
+    }
+  }
+}
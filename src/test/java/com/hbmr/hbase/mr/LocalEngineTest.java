@@ -0,0 +1,134 @@
+package com.hbmr.hbase.mr;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.hbmr.hbase.mr.samples.RowCounter;
+import com.hbmr.hbase.mr.samples.Update;
+
+public class LocalEngineTest extends TestCase {
+
+  private LocalTable pets() {
+    LocalTable pets = new LocalTable();
+    String[][] data = {
+        {"basilio", "cat"}, {"matroskin", "cat"}, {"neko", "cat"},
+        {"sharik", "dog"}, {"lassie", "dog"}, {"fido", "dog"}, {"artemon", "dog"}};
+    for (String[] pet : data) {
+      pets.put(pet[0], "family", "kind", pet[1]);
+    }
+    pets.put("nobody", "family", "kind", "");
+    return pets;
+  }
+
+  public static class KindStats extends MrAction {
+    @Override
+    public Map<String, String> map(String rowkey, Result inputData, Configuration config) {
+      String kind = Bytes.toString(inputData.getValue(Bytes.toBytes("family"), Bytes.toBytes("kind")));
+      return kind.isEmpty() ? Collections.<String, String>emptyMap() : Collections.singletonMap(kind, rowkey);
+    }
+
+    @Override
+    public Map<String, String> reduceColumns(Iterable<String> values, Configuration config) {
+      int count = 0;
+      String first = null;
+      for (String name : values) {
+        count++;
+        if (first == null || name.compareTo(first) < 0) first = name;
+      }
+      Map<String, String> result = new HashMap<String, String>();
+      result.put("count", Integer.toString(count));
+      result.put("other:first", first);
+      return result;
+    }
+  }
+
+  /**
+   * Shouts the kinds; pets of no kind are deleted
+   */
+  public static class Shout extends Update {
+    @Override
+    public List<? extends Row> transform(String rowkey, Result inputData, Configuration config) {
+      String kind = Bytes.toString(inputData.getValue(Bytes.toBytes("family"), Bytes.toBytes("kind")));
+      if (kind.isEmpty()) return Collections.singletonList(new Delete(Bytes.toBytes(rowkey)));
+      Put put = new Put(Bytes.toBytes(rowkey));
+      put.add(Bytes.toBytes("family"), Bytes.toBytes("kind"), Bytes.toBytes(kind.toUpperCase()));
+      return Collections.singletonList(put);
+    }
+  }
+
+  @Test
+  public void test_count_pets() throws Exception {
+    Configuration config = new Configuration();
+    config.set(Framework.COUNTER_KEY, "Pet");
+    LocalEngine engine = new LocalEngine(config, 3);
+    LocalTable stats = new LocalTable();
+    MrJob job = engine.newJob("Counting Pets", pets(), "family", stats, "stats:total", RowCounter.class);
+    assertEquals(MrJob.Status.READY, job.status());
+    assertTrue(job.waitForCompletion());
+    assertEquals(MrJob.Status.SUCCESS, job.status());
+    assertEquals(1.0f, job.progress());
+    assertEquals("7", stats.get("Pet", "stats", "total"));
+  }
+
+  @Test
+  public void test_several_columns() throws Exception {
+    LocalEngine engine = new LocalEngine(new Configuration(), 2);
+    LocalTable stats = new LocalTable();
+    MrJob job = engine.newJob("Pet kinds", pets(), "family", stats, "stats:total", KindStats.class);
+    assertTrue(job.waitForCompletion());
+    assertEquals(2, stats.size());
+    assertEquals("4", stats.get("dog", "stats", "count"));
+    assertEquals("artemon", stats.get("dog", "other", "first"));
+    assertEquals("3", stats.get("cat", "stats", "count"));
+    assertEquals("basilio", stats.get("cat", "other", "first"));
+  }
+
+  @Test
+  public void test_groups_complete_on_notification() throws Exception {
+    LocalEngine engine = new LocalEngine(new Configuration(), 2);
+    LocalTable first = new LocalTable();
+    LocalTable second = new LocalTable();
+    LocalTable third = new LocalTable();
+    SequentialJob sequence = new SequentialJob(
+        new ParallelJob(
+            engine.newJob("Pet kinds 1", pets(), "family", first, "stats:total", KindStats.class),
+            engine.newJob("Pet kinds 2", pets(), "family", second, "stats:total", KindStats.class)),
+        engine.newJob("Pet kinds 3", pets(), "family", third, "stats:total", KindStats.class));
+    assertTrue(sequence.waitForCompletion());
+    assertTrue(sequence.onComplete().isDone());
+    assertEquals(MrJob.Status.SUCCESS, sequence.onComplete().get());
+    assertEquals(2, first.size());
+    assertEquals(2, second.size());
+    assertEquals("3", third.get("cat", "stats", "count"));
+
+    JobMetrics metrics = sequence.metrics();
+    assertEquals(24, metrics.get(JobMetrics.Measure.ROWS_SCANNED));
+    assertEquals(6, metrics.get(JobMetrics.Measure.PUTS_WRITTEN));
+    assertEquals(0, metrics.eta());
+  }
+
+  @Test
+  public void test_row_action() throws Exception {
+    LocalEngine engine = new LocalEngine(new Configuration(), 2);
+    LocalTable shouted = new LocalTable();
+    shouted.put("nobody", "family", "kind", "");
+    MrJob job = engine.newJob("Shouting", pets(), "family", shouted, "stats:total", Shout.class);
+    assertTrue(job.waitForCompletion());
+    assertEquals(7, shouted.size());
+    assertNull(shouted.get("nobody", "family", "kind"));
+    assertEquals("DOG", shouted.get("sharik", "family", "kind"));
+    assertEquals("CAT", shouted.get("neko", "family", "kind"));
+    assertEquals(7, job.metrics().get(JobMetrics.Measure.PUTS_WRITTEN));
+  }
+}
@@ -0,0 +1,18 @@
+package com.hbmr.hbase.mr;
+
+import com.hbmr.common.Clock;
+
+/**
+ * A clock for tests: time goes on only when someone sleeps
+ */
+class ManualClock implements Clock {
+  long now = 1000;
+
+  public long now() {
+    return now;
+  }
+
+  public void sleep(long howLong) {
+    now += howLong;
+  }
+}
@@ -0,0 +1,65 @@
+package com.hbmr.hbase.mr;
+
+import junit.framework.Assert;
+
+/**
+ * A job for testing groups: completes when told to
+ */
+class ManualJob extends CommonJob {
+  private final String name;
+  int starts;
+  boolean killed;
+
+  ManualJob(String name) {
+    this.name = name;
+  }
+
+  public synchronized void start() {
+    if (!isStarted()) {
+      markStart();
+      isStarted = true;
+      starts++;
+    }
+  }
+
+  @Override
+  protected void kill() {
+    killed = true;
+  }
+
+  void finish(boolean success) throws InterruptedException {
+    isSuccessful = success;
+    isComplete = true;
+    markStop();
+    settle(monitor);
+  }
+
+  /**
+   * Waits until the groups have heard of the jobs that completed; they hear on the monitor's workers
+   */
+  static void settle(JobMonitor monitor) throws InterruptedException {
+    for (int i = 0; i < 1000 && monitor.pendingWork() > 0; i++) Thread.sleep(1);
+    Assert.assertEquals(0, monitor.pendingWork());
+  }
+
+  public boolean waitForCompletion() throws InterruptedException {
+    start();
+    return awaitCompletion();
+  }
+
+  public float progress() {
+    return isComplete ? 1.0f : 0.0f;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String details() {
+    return name + ": " + status();
+  }
+
+  public String explainError() {
+    return isComplete() && !isSuccessful() ? name + whyFailed() : "";
+  }
+}
@@ -0,0 +1,148 @@
+package com.hbmr.hbase.mr;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import com.hbmr.common.collect.ByteArray;
+import com.hbmr.common.collect.MemReMap;
+import com.hbmr.common.collect.ReMap;
+
+public class ParallelJobTest extends TestCase {
+
+  @Override
+  protected void setUp() throws Exception {
+    JobHistory.reset();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    JobHistory.reset();
+  }
+
+  @Test
+  public void test_fork_factor() throws Exception {
+    ManualJob a = new ManualJob("a");
+    ManualJob b = new ManualJob("b");
+    ManualJob c = new ManualJob("c");
+    ManualJob d = new ManualJob("d");
+    ParallelJob group = new ParallelJob(2, Arrays.<MrJob>asList(a, b, c, d));
+    group.start();
+    assertTrue(a.isStarted() && b.isStarted());
+    assertFalse(c.isStarted() || d.isStarted());
+    assertEquals(2, group.queued());
+    assertTrue(group.details().endsWith("running: 2/2, queued: 2"));
+
+    a.finish(true);
+    assertTrue(c.isStarted());
+    assertFalse(d.isStarted());
+
+    group.setForkFactor(3);
+    assertTrue(d.isStarted());
+    assertEquals(0, group.queued());
+    assertEquals(3, group.running());
+
+    b.finish(true);
+    c.finish(true);
+    assertFalse(group.onComplete().isDone());
+    d.finish(true);
+    assertTrue(group.onComplete().isDone());
+    assertEquals(MrJob.Status.SUCCESS, group.onComplete().get());
+  }
+
+  @Test
+  public void test_resume() throws Exception {
+    ReMap<String, ByteArray> store = new MemReMap<String, ByteArray>();
+    ManualJob a = new ManualJob("a");
+    ManualJob b = new ManualJob("b");
+    ManualJob c = new ManualJob("c");
+    SequentialJob seq = new SequentialJob(a, b, c);
+    seq.checkpointTo(store, "nightly");
+    seq.start();
+    a.finish(true);
+    b.finish(false);
+    assertEquals("stops at the failure", MrJob.Status.ERROR, seq.onComplete().get());
+    assertFalse(c.isStarted());
+    assertEquals(1, store.size("nightly/"));
+
+    seq.resume();
+    assertEquals(1, a.starts);
+    assertEquals(2, b.starts);
+    assertFalse(seq.onComplete().isDone());
+    b.finish(true);
+    c.finish(false);
+    assertEquals(MrJob.Status.ERROR, seq.onComplete().get());
+
+    // another process builds the same group; a and b are not run again
+    ManualJob a2 = new ManualJob("a");
+    ManualJob b2 = new ManualJob("b");
+    ManualJob c2 = new ManualJob("c");
+    SequentialJob again = new SequentialJob(a2, b2, c2);
+    again.checkpointTo(store, "nightly");
+    again.start();
+    assertFalse(a2.isStarted() || b2.isStarted());
+    assertTrue(c2.isStarted());
+    c2.finish(true);
+    assertEquals(MrJob.Status.SUCCESS, again.onComplete().get());
+    assertTrue("checkpoints removed on success", store.listForPrefix("nightly/").isEmpty());
+    assertTrue("history kept", store.containsKey(JobHistory.KEY_PREFIX + "c"));
+
+    ManualJob x = new ManualJob("x");
+    ManualJob y = new ManualJob("y");
+    ParallelJob par = new ParallelJob(2, Arrays.<MrJob>asList(x, y));
+    par.start();
+    x.finish(true);
+    y.finish(false);
+    assertEquals(MrJob.Status.ERROR, par.onComplete().get());
+    par.resume();
+    assertEquals(1, x.starts);
+    assertEquals(2, y.starts);
+    y.finish(true);
+    assertEquals(MrJob.Status.SUCCESS, par.onComplete().get());
+  }
+
+  @Test
+  public void test_cancel() throws Exception {
+    ManualJob a = new ManualJob("a");
+    ManualJob b = new ManualJob("b");
+    ManualJob c = new ManualJob("c");
+    ParallelJob group = new ParallelJob(2, Arrays.<MrJob>asList(a, b, c));
+    group.start();
+    a.finish(false);
+    assertTrue("fails fast", b.killed);
+    assertEquals(MrJob.Status.ERROR, b.onComplete().get());
+    assertTrue(b.explainError().contains("b cancelled"));
+    assertFalse(c.isStarted());
+    assertEquals(MrJob.Status.ERROR, group.onComplete().get());
+
+    ManualClock clock = new ManualClock();
+    ManualJob d = new ManualJob("d");
+    ManualJob e = new ManualJob("e");
+    SequentialJob seq = new SequentialJob(d, e);
+    seq.clock = clock;
+    seq.setTimeout(100);
+    seq.start();
+    clock.sleep(50);
+    assertFalse(seq.checkDeadline());
+    clock.sleep(60);
+    assertTrue(seq.checkDeadline());
+    ManualJob.settle(seq.monitor);
+    assertTrue(d.killed);
+    assertFalse(e.isStarted());
+    assertEquals(MrJob.Status.ERROR, seq.onComplete().get());
+    assertTrue(seq.explainError().contains("timed out"));
+
+    seq.resume();
+    assertEquals(2, d.starts);
+    d.finish(true);
+    e.finish(true);
+    assertEquals(MrJob.Status.SUCCESS, seq.onComplete().get());
+
+    ManualJob f = new ManualJob("f");
+    f.cancel();
+    f.start();
+    assertEquals(0, f.starts);
+    assertEquals(MrJob.Status.ERROR, f.status());
+  }
+}
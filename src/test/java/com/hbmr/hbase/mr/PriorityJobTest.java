@@ -0,0 +1,96 @@
+package com.hbmr.hbase.mr;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class PriorityJobTest extends TestCase {
+
+  @Override
+  protected void setUp() throws Exception {
+    JobHistory.reset();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    JobHistory.reset();
+  }
+
+  @Test
+  public void test_priorities() throws Exception {
+    ManualClock clock = new ManualClock();
+    PriorityJob group = new PriorityJob(1, 100);
+    group.clock = clock;
+    ManualJob first = new ManualJob("first");
+    ManualJob rollup = new ManualJob("rollup");
+    ManualJob cheap = new ManualJob("cheap");
+    ManualJob urgent = new ManualJob("urgent");
+    ManualJob later = new ManualJob("later");
+    JobHistory.record("rollup", 100000);
+    JobHistory.record("cheap", 10);
+    group.add(first);
+    group.add(rollup);
+    group.add(cheap);
+    group.start();
+    assertTrue("cheaper goes first", cheap.isStarted());
+
+    group.add(urgent, 5);
+    cheap.finish(true);
+    assertTrue("higher priority goes first", urgent.isStarted());
+
+    clock.sleep(50);
+    group.add(later, 0);
+    urgent.finish(true);
+    assertTrue(first.isStarted());
+    assertFalse(rollup.isStarted());
+
+    clock.sleep(60);
+    first.finish(true);
+    assertTrue("aged job beats a cheaper newer one", rollup.isStarted());
+    rollup.finish(true);
+    assertTrue(later.isStarted());
+    later.finish(true);
+    assertEquals(MrJob.Status.SUCCESS, group.onComplete().get());
+    assertEquals("tickets of finished jobs are gone", 0, group.tickets());
+    try {
+      group.add(new ManualJob("too late"));
+      fail("added to a completed group");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test
+  public void test_weighted_share() throws Exception {
+    PriorityJob group = new PriorityJob(3, PriorityJob.DEFAULT_AGING_PERIOD);
+    group.setWeight("big", 2.0).setWeight("small", 1.0);
+    List<ManualJob> jobs = new ArrayList<ManualJob>();
+    for (int i = 0; i < 40; i++) {
+      ManualJob big = new ManualJob("big " + i);
+      ManualJob small = new ManualJob("small " + i);
+      jobs.add(big);
+      jobs.add(small);
+      group.add(big, "big", 0);
+      group.add(small, "small", 0);
+    }
+    group.start();
+    LinkedList<ManualJob> running = new LinkedList<ManualJob>();
+    int bigStarts = 0;
+    int smallStarts = 0;
+    for (int round = 0; round < 30; round++) {
+      for (ManualJob job : jobs) {
+        if (job.isStarted() && !running.contains(job) && !job.isComplete()) {
+          running.add(job);
+          if (job.getName().startsWith("big")) bigStarts++; else smallStarts++;
+        }
+      }
+      assertEquals(2, group.running("big"));
+      assertEquals(1, group.running("small"));
+      running.removeFirst().finish(true);
+    }
+    assertTrue(bigStarts + ":" + smallStarts, Math.abs(bigStarts - 2 * smallStarts) <= 2);
+    assertTrue(group.details().contains("big: 2 (weight 2.0)"));
+  }
+}
@@ -0,0 +1,97 @@
+package com.hbmr.hbase.mr;
+
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Counters;
+import org.junit.Test;
+
+public class SamplerTest extends TestCase {
+
+  @Test
+  public void test_histogram() throws Exception {
+    Histogram histogram = new Histogram();
+    for (long value : new long[] {0, 1, 2, 3, 1000, 1023, 1024}) {
+      histogram.add(value);
+    }
+    assertEquals(7, histogram.count());
+    assertEquals(1, histogram.count(0));
+    assertEquals(2, histogram.count(2));
+    assertEquals(2, histogram.count(10));
+    assertEquals(1, histogram.count(11));
+    assertEquals(3, histogram.percentile(0.5));
+    assertEquals(2047, histogram.percentile(1.0));
+  }
+
+  @Test
+  public void test_every_nth() throws Exception {
+    Sampler sampler = new Sampler(Sampler.MAP, 4);
+    int sampled = 0;
+    for (int i = 0; i < 100; i++) {
+      boolean next = sampler.nextSampled();
+      if (sampler.sample()) {
+        assertTrue(next);
+        sampled++;
+      }
+    }
+    assertEquals(25, sampled);
+    assertFalse(new Sampler(Sampler.MAP, 0).sample());
+    assertFalse("off by default", new Sampler(Sampler.MAP, new Configuration()).isOn());
+  }
+
+  @Test
+  public void test_few_counters() throws Exception {
+    Sampler sampler = new Sampler(Sampler.MAP, 1);
+    for (long nanos = 1; nanos < 1L << 40; nanos *= 3) {
+      sampler.record(Sampler.Phase.ACTION, nanos);
+      sampler.record(Sampler.Phase.WRITE, nanos / 2);
+    }
+    Map<String, Long> summary = sampler.summary();
+    assertEquals(10, summary.size());
+    Counters counters = new Counters();
+    for (Map.Entry<String, Long> entry : summary.entrySet()) {
+      counters.findCounter(Sampler.MAP, entry.getKey()).increment(entry.getValue());
+    }
+    Histogram action = JobMetrics.of(counters, 1000, 0.5f).timings().get("map.ACTION");
+    assertEquals(sampler.histogram(Sampler.Phase.ACTION).count(), action.count());
+    assertEquals(sampler.histogram(Sampler.Phase.ACTION).sum(), action.sum());
+    assertEquals(1023, action.percentile(0.1));
+  }
+
+  @Test
+  public void test_values_per_key() throws Exception {
+    Sampler sampler = new Sampler(Sampler.REDUCE, 1);
+    for (long values : new long[] {1, 1, 1, 3, 10, 200, 200, 5000}) {
+      sampler.record(Sampler.Phase.VALUES_PER_KEY, values);
+    }
+    Map<String, Long> summary = sampler.summary();
+    assertEquals(Long.valueOf(3), summary.get("VALUES_PER_KEY.1"));
+    assertEquals(Long.valueOf(2), summary.get("VALUES_PER_KEY.4"));
+    assertEquals(Long.valueOf(2), summary.get("VALUES_PER_KEY.8"));
+    assertNull(summary.get("VALUES_PER_KEY.12"));
+    assertEquals(Long.valueOf(1), summary.get("VALUES_PER_KEY.63"));
+    Counters counters = new Counters();
+    for (Map.Entry<String, Long> entry : summary.entrySet()) {
+      counters.findCounter(Sampler.REDUCE, entry.getKey()).increment(entry.getValue());
+    }
+    Histogram values = JobMetrics.of(counters, 1000, 0.5f).timings().get("reduce.VALUES_PER_KEY");
+    assertEquals(1, values.percentile(0.3));
+    assertEquals(15, values.percentile(0.5));
+    assertEquals(255, values.percentile(0.8));
+  }
+
+  @Test
+  public void test_read_counters() throws Exception {
+    Counters counters = new Counters();
+    counters.findCounter(Sampler.MAP, "ACTION.11").increment(3);
+    counters.findCounter(Sampler.MAP, "ACTION.12").increment(1);
+    counters.findCounter(Sampler.MAP, "ACTION.sum").increment(9000);
+    counters.findCounter(Sampler.REDUCE, "VALUES_PER_KEY.4").increment(2);
+    Map<String, Histogram> timings = JobMetrics.of(counters, 1000, 0.5f).timings();
+    assertEquals(4, timings.get("map.ACTION").count());
+    assertEquals(2250.0, timings.get("map.ACTION").mean());
+    assertEquals(2, timings.get("reduce.VALUES_PER_KEY").count());
+    assertEquals(1000, JobMetrics.of(counters, 1000, 0.5f).eta());
+  }
+}
@@ -0,0 +1,95 @@
+package com.hbmr.hbase.mr;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.hbmr.common.collect.ByteArray;
+import com.hbmr.hbase.mr.samples.RowCounter;
+
+public class ScanPlannerTest extends TestCase {
+  private static final byte[] FAMILY = Bytes.toBytes("family");
+
+  private LocalTable wideTable(int rows, int cells) {
+    LocalTable table = new LocalTable();
+    for (int row = 0; row < rows; row++) {
+      for (int cell = 0; cell < cells; cell++) {
+        table.put("row" + row, "family", "c" + cell, "v");
+      }
+    }
+    return table;
+  }
+
+  /**
+   * What map() gets from a scan: rows, cut into parts of batch cells if the scan has a batch
+   */
+  private List<Result> scan(LocalTable table, Scan scan) {
+    List<Result> results = new ArrayList<Result>();
+    for (byte[] key : table.rowKeys()) {
+      KeyValue[] cells = table.row(key, FAMILY).raw();
+      int batch = scan.getBatch() > 0 ? scan.getBatch() : cells.length;
+      for (int from = 0; from < cells.length; from += batch) {
+        List<KeyValue> part = new ArrayList<KeyValue>();
+        for (int i = from; i < Math.min(cells.length, from + batch); i++) {
+          part.add(cells[i]);
+        }
+        results.add(new Result(part));
+      }
+    }
+    return results;
+  }
+
+  private Scan planFor(LocalTable table, MrAction action) {
+    int rows = 0;
+    long cells = 0;
+    long bytes = 0;
+    for (byte[] key : table.rowKeys()) {
+      rows++;
+      for (KeyValue kv : table.row(key, FAMILY).raw()) {
+        cells++;
+        bytes += kv.getLength();
+      }
+    }
+    Scan scan = new Scan();
+    ScanPlanner.size(scan, rows, cells, bytes, action.isCellLevel());
+    return scan;
+  }
+
+  private ByteArray countRows(List<Result> results) {
+    Configuration config = new Configuration();
+    config.set(Framework.COUNTER_KEY, "rows");
+    RowCounter counter = new RowCounter();
+    List<ByteArray> ones = new ArrayList<ByteArray>();
+    for (Result result : results) {
+      ones.addAll(counter.mapBytes(new ByteArray(result.getRow()), result, config).values());
+    }
+    return counter.reduceBytes(ones, config);
+  }
+
+  @Test
+  public void test_wide_rows_are_not_split_for_row_actions() throws Exception {
+    LocalTable table = wideTable(3, 5 * ScanPlanner.WIDE_ROW);
+    Scan scan = planFor(table, new RowCounter());
+    assertTrue(scan.getBatch() <= 0);
+    assertEquals(new ByteArray("3"), countRows(scan(table, scan)));
+
+    // what a batch would do to a row action
+    Scan batched = new Scan();
+    batched.setBatch(ScanPlanner.WIDE_ROW);
+    assertEquals(new ByteArray("15"), countRows(scan(table, batched)));
+  }
+
+  @Test
+  public void test_wide_rows_are_split_for_cell_actions() throws Exception {
+    Scan scan = new Scan();
+    ScanPlanner.size(scan, 3, 15 * ScanPlanner.WIDE_ROW, 15 * ScanPlanner.WIDE_ROW * 30, true);
+    assertEquals(ScanPlanner.WIDE_ROW, scan.getBatch());
+  }
+}
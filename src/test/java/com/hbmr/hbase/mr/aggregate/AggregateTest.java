@@ -0,0 +1,92 @@
+package com.hbmr.hbase.mr.aggregate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Result;
+import org.junit.Test;
+
+import com.hbmr.common.collect.ByteArray;
+import com.hbmr.hbase.mr.Framework;
+
+public class AggregateTest extends TestCase {
+
+  public static class Sum extends LongSum {
+    @Override
+    public Map<ByteArray, Long> values(ByteArray rowkey, Result inputData, Configuration config) {
+      return Collections.singletonMap(rowkey, (long) rowkey.size());
+    }
+  }
+
+  public static class Average extends Mean {
+    @Override
+    public Map<ByteArray, Long> values(ByteArray rowkey, Result inputData, Configuration config) {
+      return Collections.singletonMap(new ByteArray("avg"), (long) rowkey.size());
+    }
+  }
+
+  private static ByteArray binary(long n) {
+    return new ByteArray(n);
+  }
+
+  @Test
+  public void test_sum_combines_then_reduces_to_text() {
+    Sum sut = new Sum();
+    ByteArray partial = sut.combineBytes(Arrays.asList(binary(3), binary(4)), null);
+    assertEquals(binary(7), partial);
+    assertEquals(new ByteArray("12"), sut.reduceBytes(Arrays.asList(partial, binary(5)), null));
+  }
+
+  @Test
+  public void test_bad_partial() {
+    try {
+      new Sum().reduceBytes(Arrays.asList(binary(3), new ByteArray("12")), null);
+      fail("text is not a partial sum");
+    } catch (IllegalArgumentException expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().contains("\"12\""));
+    }
+  }
+
+  @Test
+  public void test_string_flavour() {
+    Sum sut = new Sum();
+    assertEquals("17", sut.merge("12", "5", null));
+    assertEquals(Collections.singleton("abc"), sut.map("abc", null, null).keySet());
+    assertNull(sut.reduce(Collections.<String>emptyList(), null));
+  }
+
+  @Test
+  public void test_nothing_to_reduce() {
+    assertNull(new Sum().reduceBytes(Collections.<ByteArray>emptyList(), null));
+  }
+
+  @Test
+  public void test_mean_of_partials() {
+    Average sut = new Average();
+    ByteArray a = sut.mapBytes(new ByteArray("ab"), null, (Configuration) null).values().iterator().next();
+    ByteArray b = sut.mapBytes(new ByteArray("abcd"), null, (Configuration) null).values().iterator().next();
+    ByteArray c = sut.mapBytes(new ByteArray("abcdefghi"), null, (Configuration) null).values().iterator().next();
+    ByteArray partial = sut.combineBytes(Arrays.asList(a, b), null);
+    assertEquals(new ByteArray("5.0"), sut.reduceBytes(Arrays.asList(partial, c), null));
+  }
+
+  @Test
+  public void test_incremental_merge() throws Exception {
+    assertEquals(new ByteArray("17"), new Sum().mergeBytes(new ByteArray("12"), new ByteArray("5"), null));
+    try {
+      new Average().mergeBytes(new ByteArray("5.0"), new ByteArray("2.0"), null);
+      fail("a mean cannot be merged without counts");
+    } catch (UnsupportedOperationException expected) {
+    }
+    assertTrue(new Sum().isMergeable());
+    assertFalse(new Average().isMergeable());
+    try {
+      new Framework().newIncrementalJob("averages", "data", "family", "stats:family:avg", Average.class);
+      fail("a mean cannot run incrementally");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}